@@ -1,4 +1,6 @@
 import org.jetbrains.changelog.markdownToHTML
+import java.net.URLClassLoader
+import java.util.zip.ZipFile
 
 fun properties(key: String) = project.findProperty(key).toString()
 
@@ -33,6 +35,54 @@ dependencies {
     implementation("org.reflections:reflections:0.10.2") {
         exclude(group = "org.slf4j")
     }
+    testImplementation("junit:junit:4.13.2")
+}
+
+// Lists the UIWidget classes bundled with NUI, so that the plugin does not have to scan for them at runtime
+val generateBuiltInWidgetIndex by tasks.registering {
+    val runtimeClasspath = configurations.runtimeClasspath
+    val outputDirectory = layout.buildDirectory.dir("generated/resources/builtInWidgets")
+    inputs.files(runtimeClasspath)
+    outputs.dir(outputDirectory)
+
+    doLast {
+        val classpathFiles = runtimeClasspath.get().files
+        val classpathUrls = classpathFiles.map { it.toURI().toURL() }.toTypedArray()
+        val widgetClassNames = URLClassLoader(classpathUrls, ClassLoader.getPlatformClassLoader()).use { classLoader ->
+            val widgetClass = classLoader.loadClass("org.terasology.nui.UIWidget")
+            classpathFiles.filter { it.isFile && it.name.endsWith(".jar") }
+                .flatMap { jar ->
+                    ZipFile(jar).use { zip ->
+                        zip.entries().asSequence()
+                            .map { it.name }
+                            .filter { it.startsWith("org/terasology/nui/") && it.endsWith(".class") }
+                            .map { it.removeSuffix(".class").replace('/', '.') }
+                            .toList()
+                    }
+                }
+                .filter { className ->
+                    try {
+                        className != widgetClass.name && widgetClass.isAssignableFrom(Class.forName(className, false, classLoader))
+                    } catch (e: ClassNotFoundException) {
+                        false
+                    } catch (e: LinkageError) {
+                        false
+                    }
+                }
+                .distinct()
+                .sorted()
+        }
+
+        val indexFile = outputDirectory.get().file("com/github/benjaminamos/nuiplugin/nui/builtin-widgets.txt").asFile
+        indexFile.parentFile.mkdirs()
+        indexFile.writeText(widgetClassNames.joinToString("\n", postfix = "\n"))
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(generateBuiltInWidgetIndex)
+    }
 }
 
 // Configure Gradle IntelliJ Plugin - read more: https://github.com/JetBrains/gradle-intellij-plugin
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.cache;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.LowMemoryWatcher;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe LRU cache bounded by the combined weight of its entries.
+ * <p>
+ * Entries are held strongly until the weight budget is exceeded, at which point the least-recently used entries are
+ * evicted. When the IDE reports low memory, every entry is demoted to a soft reference and no longer counts towards
+ * the budget. Soft entries are promoted back to strong references if they are used again before being collected, and
+ * are removed once collected.
+ * <p>
+ * The removal listener is notified of every key that leaves the cache, whether evicted, collected or removed.
+ * It is called whilst the cache is locked, but only once the key has been removed, so it may remove further keys.
+ */
+public class AssetCache<K, V> {
+    private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<V> collectedValues = new ReferenceQueue<>();
+    private final ToLongFunction<? super V> weigher;
+    private final LongSupplier maximumWeight;
+    private final Consumer<? super K> removalListener;
+    private long totalWeight;
+
+    public AssetCache(ToLongFunction<? super V> weigher, LongSupplier maximumWeight, Consumer<? super K> removalListener,
+                      Disposable parentDisposable) {
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        this.removalListener = removalListener;
+        LowMemoryWatcher.register(this::softenAll, parentDisposable);
+    }
+
+    public synchronized V get(K key) {
+        removeCollected();
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.value != null) {
+            return entry.value;
+        }
+
+        V value = entry.softValue.get();
+        if (value == null) {
+            entries.remove(key);
+            removalListener.accept(key);
+            return null;
+        }
+
+        entry.value = value;
+        entry.softValue = null;
+        totalWeight += entry.weight;
+        evictToBudget();
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        removeCollected();
+        Entry<V> previous = entries.put(key, new Entry<>(value, weigher.applyAsLong(value)));
+        if (previous != null && previous.value != null) {
+            totalWeight -= previous.weight;
+        }
+        totalWeight += entries.get(key).weight;
+        evictToBudget();
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+
+        removalListener.accept(key);
+
+        if (entry.value != null) {
+            totalWeight -= entry.weight;
+            return entry.value;
+        }
+        return entry.softValue.get();
+    }
+
+    /**
+     * Removes every entry whose key and (still reachable) value match the given predicate.
+     * Soft entries that have already been collected are removed regardless.
+     */
+    public synchronized void removeIf(BiPredicate<? super K, ? super V> predicate) {
+        List<K> removedKeys = new ArrayList<>();
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> mapEntry = iterator.next();
+            Entry<V> entry = mapEntry.getValue();
+            V value = entry.value != null ? entry.value : entry.softValue.get();
+            if (value == null || predicate.test(mapEntry.getKey(), value)) {
+                if (entry.value != null) {
+                    totalWeight -= entry.weight;
+                }
+                iterator.remove();
+                removedKeys.add(mapEntry.getKey());
+            }
+        }
+        removedKeys.forEach(removalListener);
+    }
+
+    public synchronized void clear() {
+        List<K> removedKeys = new ArrayList<>(entries.keySet());
+        entries.clear();
+        totalWeight = 0;
+        removedKeys.forEach(removalListener);
+    }
+
+    public synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    private void evictToBudget() {
+        long budget = maximumWeight.getAsLong();
+        List<K> removedKeys = new ArrayList<>();
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (totalWeight > budget && iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> mapEntry = iterator.next();
+            if (mapEntry.getValue().value != null) {
+                totalWeight -= mapEntry.getValue().weight;
+            }
+            iterator.remove();
+            removedKeys.add(mapEntry.getKey());
+        }
+        removedKeys.forEach(removalListener);
+    }
+
+    /**
+     * Removes the soft entries whose values have been collected, even if they are never looked up again.
+     */
+    @SuppressWarnings("unchecked")
+    private void removeCollected() {
+        Reference<? extends V> reference;
+        while ((reference = collectedValues.poll()) != null) {
+            K key = ((SoftValue<K, V>) reference).key;
+            Entry<V> entry = entries.get(key);
+            // The entry may have been replaced since its value was softened.
+            if (entry != null && entry.softValue == reference) {
+                entries.remove(key);
+                removalListener.accept(key);
+            }
+        }
+    }
+
+    /**
+     * Demotes every entry to a soft reference. This is called when the IDE reports low memory.
+     */
+    synchronized void softenAll() {
+        for (Map.Entry<K, Entry<V>> mapEntry : entries.entrySet()) {
+            Entry<V> entry = mapEntry.getValue();
+            if (entry.value != null) {
+                entry.softValue = new SoftValue<>(mapEntry.getKey(), entry.value, collectedValues);
+                entry.value = null;
+            }
+        }
+        totalWeight = 0;
+    }
+
+    private static final class SoftValue<K, V> extends SoftReference<V> {
+        private final K key;
+
+        private SoftValue(K key, V value, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    private static final class Entry<V> {
+        private V value;
+        private SoftReference<V> softValue;
+        private final long weight;
+
+        private Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.cache;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records which assets were used to build other assets, such as the parent skin, textures and fonts of a skin.
+ */
+public class AssetDependencyGraph<K> {
+    private final Map<K, Set<K>> dependencies = new HashMap<>();
+    private final Map<K, Set<K>> dependents = new HashMap<>();
+
+    public synchronized void addDependency(K dependent, K dependency) {
+        dependencies.computeIfAbsent(dependent, key -> new HashSet<>()).add(dependency);
+        dependents.computeIfAbsent(dependency, key -> new HashSet<>()).add(dependent);
+    }
+
+    /**
+     * Forgets the dependencies of an asset, usually because it is about to be re-loaded.
+     */
+    public synchronized void clearDependencies(K dependent) {
+        Set<K> removed = dependencies.remove(dependent);
+        if (removed == null) {
+            return;
+        }
+
+        for (K dependency : removed) {
+            Set<K> dependencyDependents = dependents.get(dependency);
+            if (dependencyDependents != null) {
+                dependencyDependents.remove(dependent);
+                if (dependencyDependents.isEmpty()) {
+                    dependents.remove(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return every asset that depends on the given asset, directly or transitively
+     */
+    public synchronized Set<K> getDependents(K dependency) {
+        Set<K> result = new HashSet<>();
+        Deque<K> pending = new ArrayDeque<>(dependents.getOrDefault(dependency, Collections.emptySet()));
+        while (!pending.isEmpty()) {
+            K dependent = pending.pop();
+            if (result.add(dependent)) {
+                pending.addAll(dependents.getOrDefault(dependent, Collections.emptySet()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes an asset and everything that depends on it from the graph.
+     *
+     * @return the removed assets, including the given one
+     */
+    public synchronized Set<K> removeWithDependents(K dependency) {
+        Set<K> removed = getDependents(dependency);
+        removed.add(dependency);
+        for (K asset : removed) {
+            clearDependencies(asset);
+        }
+        for (K asset : removed) {
+            dependents.remove(asset);
+        }
+        return removed;
+    }
+
+    public synchronized void clear() {
+        dependencies.clear();
+        dependents.clear();
+    }
+}
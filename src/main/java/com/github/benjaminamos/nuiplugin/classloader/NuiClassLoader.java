@@ -24,13 +24,41 @@ import org.terasology.nui.UIWidget;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NuiClassLoader extends UrlClassLoader {
-    public NuiClassLoader(@NotNull List<Path> classPaths) {
+    private final String moduleName;
+    private final int version;
+    private final AtomicInteger definedClassCount = new AtomicInteger();
+
+    public NuiClassLoader(@NotNull List<Path> classPaths, String moduleName, int version) {
         super(build()
                 .allowBootstrapResources(false)
                 .allowLock(false)
                 .files(classPaths), true);
+        this.moduleName = moduleName;
+        this.version = version;
+    }
+
+    /**
+     * @return the name of the module whose classpath this loads
+     */
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * @return the version of this class loader, which increases every time a class loader is created for a project
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of classes defined by this class loader, rather than delegated to the plugin's class loader
+     */
+    public int getDefinedClassCount() {
+        return definedClassCount.get();
     }
 
     @Override
@@ -47,6 +75,8 @@ public class NuiClassLoader extends UrlClassLoader {
             return Rectanglei.class.getClassLoader().loadClass(name);
         }
 
-        return super.findClass(name);
+        Class<?> definedClass = super.findClass(name);
+        definedClassCount.incrementAndGet();
+        return definedClass;
     }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.classloader;
+
+import com.github.benjaminamos.nuiplugin.services.GestaltModuleService;
+import com.github.benjaminamos.nuiplugin.services.PreviewReloadCoordinator;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Shares one {@link NuiClassLoader} between every previewer in a module.
+ * <p>
+ * Class loaders are keyed by a fingerprint of the module's classpath, so they are only replaced (and their widget
+ * classes loaded again) once the compiled outputs actually change. Only the class loaders that load the changed
+ * outputs are retired.
+ */
+@Service
+public final class NuiClassLoaderCache implements BulkFileListener, Disposable {
+    private static final class CachedClassLoader {
+        private final List<Path> classPaths;
+        private final long fingerprint;
+        private final NuiClassLoader classLoader;
+        private final long creationTime;
+
+        private CachedClassLoader(List<Path> classPaths, long fingerprint, NuiClassLoader classLoader) {
+            this.classPaths = classPaths;
+            this.fingerprint = fingerprint;
+            this.classLoader = classLoader;
+            this.creationTime = System.currentTimeMillis();
+        }
+    }
+
+    private static final Logger logger = Logger.getInstance(NuiClassLoaderCache.class);
+    private final Project project;
+    private final Map<String, CachedClassLoader> classLoaders = new ConcurrentHashMap<>();
+    private final AtomicInteger nextClassLoaderVersion = new AtomicInteger();
+    /**
+     * Class loaders that have been retired, but not garbage collected yet. These are only kept for diagnostics.
+     */
+    private final List<WeakReference<NuiClassLoader>> retiredClassLoaders = ContainerUtil.createLockFreeCopyOnWriteList();
+
+    public NuiClassLoaderCache(Project project) {
+        this.project = project;
+        project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, this);
+    }
+
+    /**
+     * Returns the class loader for a module's runtime classpath, creating it if the classpath has changed.
+     * This must be called from within a read action.
+     */
+    public NuiClassLoader getClassLoader(Module module) {
+        List<Path> classPaths = new ArrayList<>();
+        for (VirtualFile outputPath : OrderEnumerator.orderEntries(module).classes().getRoots()) {
+            classPaths.add(Path.of(outputPath.getPath().replace("!", "")));
+        }
+
+        long fingerprint = computeFingerprint(classPaths);
+        // Previews in the same module are loaded concurrently, so only one of them may create the class loader.
+        NuiClassLoader[] replacedClassLoader = new NuiClassLoader[1];
+        CachedClassLoader cachedClassLoader = classLoaders.compute(module.getName(), (moduleName, existingClassLoader) -> {
+            if (existingClassLoader != null && existingClassLoader.fingerprint == fingerprint) {
+                return existingClassLoader;
+            }
+
+            if (existingClassLoader != null) {
+                replacedClassLoader[0] = existingClassLoader.classLoader;
+            }
+            NuiClassLoader classLoader = new NuiClassLoader(classPaths, moduleName, nextClassLoaderVersion.incrementAndGet());
+            return new CachedClassLoader(classPaths, fingerprint, classLoader);
+        });
+
+        if (replacedClassLoader[0] != null) {
+            // Retiring the class loader reloads previews, which should not be started from within this read action.
+            Set<NuiClassLoader> retired = Set.of(replacedClassLoader[0]);
+            AppExecutorUtil.getAppExecutorService().execute(() -> {
+                if (!project.isDisposed()) {
+                    classLoadersRetired(retired);
+                    project.getService(PreviewReloadCoordinator.class).classLoadersRetired(retired);
+                }
+            });
+        }
+        return cachedClassLoader.classLoader;
+    }
+
+    /**
+     * Retires the class loaders that load compiled outputs of the given modules that have been written since they were
+     * created, leaving the others in place.
+     *
+     * @return the retired class loaders
+     */
+    public Set<NuiClassLoader> outputsChanged(Collection<Module> modules) {
+        // A build lists every module in its scope, including those that were already up-to-date.
+        Map<Path, Long> modificationTimes = new HashMap<>();
+        for (String outputPath : ReadAction.compute(() -> CompilerPaths.getOutputPaths(modules.toArray(Module.EMPTY_ARRAY)))) {
+            Path path = Path.of(outputPath);
+            modificationTimes.put(path, getLastModificationTime(path));
+        }
+        return retireClassLoaders(modificationTimes);
+    }
+
+    /**
+     * @return the latest time that an output, or anything within it, was modified. Deleting a class modifies the
+     *         directory containing it. Outputs that cannot be read are assumed to have just changed.
+     */
+    private static long getLastModificationTime(Path outputPath) {
+        try (Stream<Path> paths = Files.walk(outputPath)) {
+            long modificationTime = 0;
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                modificationTime = Math.max(modificationTime, Files.getLastModifiedTime(path).toMillis());
+            }
+            return modificationTime;
+        } catch (IOException | UncheckedIOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Retires the class loaders that were created before any of their class paths were last modified.
+     *
+     * @param modificationTimes the latest modification times of the changed class paths
+     */
+    private Set<NuiClassLoader> retireClassLoaders(Map<Path, Long> modificationTimes) {
+        return retireClassLoaders(cachedClassLoader -> {
+            for (Path classPath : cachedClassLoader.classPaths) {
+                Long modificationTime = modificationTimes.get(classPath);
+                if (modificationTime != null && cachedClassLoader.creationTime <= modificationTime) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private Set<NuiClassLoader> retireClassLoaders(Predicate<CachedClassLoader> filter) {
+        Set<NuiClassLoader> retired = new HashSet<>();
+        classLoaders.values().removeIf(cachedClassLoader -> {
+            if (filter.test(cachedClassLoader)) {
+                retired.add(cachedClassLoader.classLoader);
+                return true;
+            }
+            return false;
+        });
+
+        if (!retired.isEmpty()) {
+            classLoadersRetired(retired);
+        }
+        return retired;
+    }
+
+    /**
+     * Drops the project's references to classes from retired class loaders, so that the class loaders
+     * (and the metaspace used by their classes) can be garbage collected.
+     */
+    private void classLoadersRetired(Set<NuiClassLoader> retired) {
+        // Resolved widgets, skins and layout type adapters hold classes from the retired class loaders.
+        GestaltModuleService gestaltModuleService = project.getService(GestaltModuleService.class);
+        gestaltModuleService.getWidgetLibrary().clearResolvedWidgets(widgetClass -> retired.contains(widgetClass.getClassLoader()));
+        gestaltModuleService.invalidateModuleWidgetSkins();
+        gestaltModuleService.getLayoutLoader().clearCaches();
+
+        for (NuiClassLoader classLoader : retired) {
+            retiredClassLoaders.add(new WeakReference<>(classLoader));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(describeClassLoaders());
+        }
+    }
+
+    /**
+     * Describes the class loaders that are still in memory, including retired class loaders that have not been
+     * garbage collected yet. Retired class loaders that stay in memory for a long time have most likely leaked.
+     */
+    public String describeClassLoaders() {
+        retiredClassLoaders.removeIf(reference -> reference.get() == null);
+
+        StringBuilder description = new StringBuilder();
+        description.append("NUI class loaders for ").append(project.getName()).append(": ")
+                .append(classLoaders.size()).append(" active, ")
+                .append(retiredClassLoaders.size()).append(" retired but not yet garbage collected");
+        for (CachedClassLoader cachedClassLoader : classLoaders.values()) {
+            appendClassLoader(description, cachedClassLoader.classLoader, "active");
+        }
+        for (WeakReference<NuiClassLoader> reference : retiredClassLoaders) {
+            NuiClassLoader classLoader = reference.get();
+            if (classLoader != null) {
+                appendClassLoader(description, classLoader, "retired");
+            }
+        }
+        return description.toString();
+    }
+
+    private static void appendClassLoader(StringBuilder description, NuiClassLoader classLoader, String state) {
+        description.append("\n  ").append(classLoader.getModuleName())
+                .append(" v").append(classLoader.getVersion())
+                .append(" (").append(state).append("): ")
+                .append(classLoader.getDefinedClassCount()).append(" classes");
+    }
+
+    private long computeFingerprint(List<Path> classPaths) {
+        long fingerprint = classPaths.hashCode();
+        for (Path classPath : classPaths) {
+            long stamp;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(classPath, BasicFileAttributes.class);
+                // Class files can change without their directory's timestamp changing,
+                // so class loaders reading from directories are retired by outputsChanged instead.
+                stamp = attributes.isDirectory()
+                        ? 0
+                        : 31 * attributes.lastModifiedTime().toMillis() + attributes.size();
+            } catch (IOException e) {
+                // The path does not exist (yet), such as an output directory before the first build.
+                stamp = -1;
+            }
+            fingerprint = 31 * fingerprint + stamp;
+        }
+        return fingerprint;
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        if (classLoaders.isEmpty()) {
+            return;
+        }
+
+        // Classes may be compiled outside the IDE's own build, such as by Gradle.
+        // A build writes thousands of classes at once, so they are grouped by the class path that contains them.
+        Set<Path> classPaths = new HashSet<>();
+        for (CachedClassLoader cachedClassLoader : classLoaders.values()) {
+            classPaths.addAll(cachedClassLoader.classPaths);
+        }
+
+        Map<Path, Long> modificationTimes = new HashMap<>();
+        for (VFileEvent event : events) {
+            if (!event.getPath().endsWith(".class")) {
+                continue;
+            }
+
+            Path classPath = findClassPath(classPaths, Path.of(event.getPath()));
+            if (classPath == null) {
+                continue;
+            }
+
+            // Class loaders created after the class was written already see it. Deleted classes always retire them.
+            VirtualFile file = event instanceof VFileDeleteEvent ? null : event.getFile();
+            long modificationTime = file != null ? file.getTimeStamp() : Long.MAX_VALUE;
+            modificationTimes.merge(classPath, modificationTime, Math::max);
+        }
+
+        if (modificationTimes.isEmpty()) {
+            return;
+        }
+
+        Set<NuiClassLoader> retired = retireClassLoaders(modificationTimes);
+        if (!retired.isEmpty()) {
+            project.getService(PreviewReloadCoordinator.class).classLoadersRetired(retired);
+        }
+    }
+
+    private static @Nullable Path findClassPath(Set<Path> classPaths, Path file) {
+        for (Path parent = file.getParent(); parent != null; parent = parent.getParent()) {
+            if (classPaths.contains(parent)) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void dispose() {
+        classLoaders.clear();
+        retiredClassLoaders.clear();
+    }
+}
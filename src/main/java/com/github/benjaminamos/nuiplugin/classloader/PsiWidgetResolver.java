@@ -0,0 +1,137 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.classloader;
+
+import com.github.benjaminamos.nuiplugin.nui.WidgetLibrary;
+import com.github.benjaminamos.nuiplugin.services.GestaltModuleService;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEntry;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.util.InheritanceUtil;
+import org.jetbrains.annotations.Nullable;
+import org.terasology.nui.UIWidget;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds module widgets through the IDE's class name index, so that only the widgets a layout uses are loaded.
+ */
+public class PsiWidgetResolver implements WidgetLibrary.WidgetResolver {
+    private static final Logger logger = Logger.getInstance(PsiWidgetResolver.class);
+    private final Project project;
+
+    public PsiWidgetResolver(Project project) {
+        this.project = project;
+    }
+
+    @Override
+    public @Nullable Class<? extends UIWidget> resolve(String moduleId, String simpleName) {
+        return ReadAction.compute(() -> {
+            if (DumbService.isDumb(project)) {
+                // The widget may not be indexed yet, so it must not be remembered as missing.
+                throw IndexNotReadyException.create();
+            }
+
+            PsiShortNamesCache namesCache = PsiShortNamesCache.getInstance(project);
+            GlobalSearchScope scope = GlobalSearchScope.allScope(project);
+            Class<? extends UIWidget> widgetClass = findWidgetClass(moduleId, namesCache.getClassesByName(simpleName, scope));
+            if (widgetClass != null) {
+                return widgetClass;
+            }
+
+            // Widget types are case-insensitive, whilst the class name index is not.
+            Set<String> classNames = new LinkedHashSet<>();
+            namesCache.processAllClassNames(className -> {
+                if (!className.equals(simpleName) && className.equalsIgnoreCase(simpleName)) {
+                    classNames.add(className);
+                }
+                return true;
+            }, scope, null);
+            for (String className : classNames) {
+                widgetClass = findWidgetClass(moduleId, namesCache.getClassesByName(className, scope));
+                if (widgetClass != null) {
+                    return widgetClass;
+                }
+            }
+            return null;
+        });
+    }
+
+    private @Nullable Class<? extends UIWidget> findWidgetClass(String moduleId, PsiClass[] candidates) {
+        GestaltModuleService gestaltModuleService = project.getService(GestaltModuleService.class);
+        for (PsiClass candidate : candidates) {
+            String qualifiedName = candidate.getQualifiedName();
+            if (qualifiedName == null || qualifiedName.startsWith("org.terasology.nui.")
+                    || !InheritanceUtil.isInheritor(candidate, UIWidget.class.getName())) {
+                continue;
+            }
+
+            VirtualFile classFile = candidate.getContainingFile().getVirtualFile();
+            if (classFile == null) {
+                continue;
+            }
+
+            String candidateModuleId = gestaltModuleService.getModuleIdForFile(classFile);
+            if (candidateModuleId == null) {
+                // Assume the "engine" module, for now.
+                candidateModuleId = "engine";
+            }
+            if (!candidateModuleId.equalsIgnoreCase(moduleId)) {
+                continue;
+            }
+
+            Module classModule = findLoadingModule(classFile);
+            if (classModule == null) {
+                continue;
+            }
+
+            try {
+                NuiClassLoader classLoader = project.getService(NuiClassLoaderCache.class).getClassLoader(classModule);
+                return classLoader.loadClass(qualifiedName).asSubclass(UIWidget.class);
+            } catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+                // The class may not have been compiled yet.
+                logger.debug("Unable to load widget class " + qualifiedName, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a module whose runtime classpath contains the file. Library classes are loaded by a module depending on them.
+     */
+    private @Nullable Module findLoadingModule(VirtualFile classFile) {
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        Module module = fileIndex.getModuleForFile(classFile);
+        if (module != null) {
+            return module;
+        }
+
+        List<OrderEntry> orderEntries = fileIndex.getOrderEntriesForFile(classFile);
+        return orderEntries.isEmpty() ? null : orderEntries.get(0).getOwnerModule();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.indexes;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Maps lower-case Gestalt asset names to the files that provide them.
+ * Only the file name is indexed. The module providing an asset is determined when the index is queried,
+ * so that changes to module manifests do not require the index to be rebuilt.
+ */
+public class GestaltAssetIndex extends FileBasedIndexExtension<String, GestaltAssetType> {
+    public static final ID<String, GestaltAssetType> NAME = ID.create("com.github.benjaminamos.nuiplugin.indexes.GestaltAssetIndex");
+
+    @Override
+    public @NotNull ID<String, GestaltAssetType> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, GestaltAssetType, FileContent> getIndexer() {
+        return inputData -> {
+            VirtualFile file = inputData.getFile();
+            GestaltAssetType assetType = GestaltAssetType.forExtension(file.getExtension());
+            if (assetType == null) {
+                return Collections.emptyMap();
+            }
+
+            return Collections.singletonMap(file.getNameWithoutExtension().toLowerCase(Locale.ROOT), assetType);
+        };
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<GestaltAssetType> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, GestaltAssetType value) throws IOException {
+                DataInputOutputUtil.writeINT(out, value.ordinal());
+            }
+
+            @Override
+            public GestaltAssetType read(@NotNull DataInput in) throws IOException {
+                return GestaltAssetType.values()[DataInputOutputUtil.readINT(in)];
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public FileBasedIndex.@NotNull InputFilter getInputFilter() {
+        return file -> !file.isDirectory() && GestaltAssetType.forExtension(file.getExtension()) != null;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return false;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.indexes;
+
+import java.util.List;
+import java.util.Locale;
+
+public enum GestaltAssetType {
+    // Terasology also accepts .jpeg images. They are used for the menu backgrounds, mostly.
+    TEXTURE("png", "jpeg"),
+    FONT("fnt", "font"),
+    SKIN("skin"),
+    ATLAS("atlas");
+
+    private final List<String> extensions;
+
+    GestaltAssetType(String... extensions) {
+        this.extensions = List.of(extensions);
+    }
+
+    /**
+     * @return the file extensions used by this asset type, in order of preference
+     */
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    public static GestaltAssetType forExtension(String extension) {
+        if (extension == null) {
+            return null;
+        }
+
+        String lowerCaseExtension = extension.toLowerCase(Locale.ROOT);
+        for (GestaltAssetType assetType : values()) {
+            if (assetType.extensions.contains(lowerCaseExtension)) {
+                return assetType;
+            }
+        }
+        return null;
+    }
+}
@@ -16,14 +16,16 @@
 
 package com.github.benjaminamos.nuiplugin.languages;
 
-import com.github.benjaminamos.nuiplugin.classloader.NuiClassLoader;
 import com.github.benjaminamos.nuiplugin.nui.AwtCanvasRenderer;
 import com.github.benjaminamos.nuiplugin.nui.AwtFont;
 import com.github.benjaminamos.nuiplugin.nui.AwtMouseDevice;
 import com.github.benjaminamos.nuiplugin.nui.UIElementLoader;
 import com.github.benjaminamos.nuiplugin.services.GestaltModuleService;
+import com.github.benjaminamos.nuiplugin.services.PreviewReloadCoordinator;
+import com.github.benjaminamos.nuiplugin.utils.WidgetInheritors;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.event.DocumentEvent;
@@ -34,22 +36,17 @@ import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
 import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.module.Module;
-import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.ModuleUtil;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.OrderEnumerator;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.search.PsiShortNamesCache;
-import com.intellij.psi.search.searches.ClassInheritorsSearch;
 import com.intellij.ui.EditorNotifications;
 import com.intellij.ui.components.JBLoadingPanel;
 import com.intellij.ui.components.JBPanel;
-import com.intellij.util.concurrency.NonUrgentExecutor;
+import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.ui.JBUI;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
@@ -73,11 +70,11 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.beans.PropertyChangeListener;
-import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbService.DumbModeListener {
     private static final Logger LOG = Logger.getInstance(NuiFilePreviewer.class);
@@ -86,6 +83,8 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
     private final GestaltModuleService gestaltModuleService;
     private final JBLoadingPanel loadingPanel;
     private final NuiPanel preview;
+    private final AtomicInteger fullReloadRequests = new AtomicInteger();
+    private volatile int completedFullReloads = -1;
 
     public NuiFilePreviewer(Project project, VirtualFile file) {
         this.project = project;
@@ -99,65 +98,37 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
         Document fileDocument = FileDocumentManager.getInstance().getDocument(file);
         fileDocument.addDocumentListener(this);
 
-        project.getMessageBus().connect(this).subscribe(DumbService.DUMB_MODE, this);
+        MessageBusConnection connection = project.getMessageBus().connect(this);
+        connection.subscribe(DumbService.DUMB_MODE, this);
+        // Textures and fonts are loaded in the background, so the preview is drawn again when they arrive.
+        connection.subscribe(GestaltModuleService.ASSETS_LOADED, preview::repaint);
 
         reload();
     }
 
-    private void loadNuiClasses() {
-        @Nullable Module fileModule = ModuleUtil.findModuleForFile(file, project);
-        if (fileModule == null) {
-            return;
-        }
-
-        @Nullable Module codeModule = ModuleManager.getInstance(project).findModuleByName(fileModule.getName() + ".main");
-        if (codeModule != null) {
-            fileModule = codeModule;
-        }
-
-        PsiClass uiWidgetClass = JavaPsiFacade.getInstance(project).findClass(UIWidget.class.getName(), GlobalSearchScope.allScope(project));
-        if (uiWidgetClass != null) {
-            PsiClass[] inherited = ClassInheritorsSearch
-                    .search(uiWidgetClass, fileModule.getModuleRuntimeScope(false), true)
-                    .toArray(new PsiClass[0]);
-
-            List<Path> classPaths = new ArrayList<>();
-            for (VirtualFile outputPath : OrderEnumerator.orderEntries(fileModule).classes().getRoots()) {
-                classPaths.add(Path.of(outputPath.getPath().replace("!", "")));
-            }
-
-            // TODO: Cache class loaders per module
-            NuiClassLoader classLoader = new NuiClassLoader(classPaths);
-
-            for (PsiClass widgetPsiClass : inherited) {
-                if (widgetPsiClass.getQualifiedName() == null || widgetPsiClass.getQualifiedName().startsWith("org.terasology.nui.")) {
-                    continue;
-                }
-
-                try {
-                    String moduleId = gestaltModuleService.getModuleIdForFile(widgetPsiClass.getContainingFile().getVirtualFile());
-                    if (moduleId == null) {
-                        // Assume the "engine" module, for now.
-                        moduleId = "engine";
-                    }
-
-                    Class<? extends UIWidget> widgetClass = (Class<? extends UIWidget>) classLoader.loadClass(widgetPsiClass.getQualifiedName());
-                    gestaltModuleService.getWidgetLibrary().addWidgetClass(moduleId + ":" + widgetClass.getSimpleName(), widgetClass);
-                } catch (Throwable t) {
-                    t.getMessage();
-                }
-            }
-        }
-
-        gestaltModuleService.invalidateSkins();
+    public void reload() {
+        fullReloadRequests.incrementAndGet();
+        project.getService(PreviewReloadCoordinator.class).scheduleReload(this);
+    }
 
-        preview.reload(project, file, LoadTextUtil.loadText(file).toString());
+    /**
+     * Reloads the preview after an edit to the layout, re-using the widgets for the parts of the layout that are unchanged.
+     */
+    public void reloadEditedLayout() {
+        project.getService(PreviewReloadCoordinator.class).scheduleReload(this);
     }
 
-    public void reload() {
-        ReadAction.nonBlocking(this::loadNuiClasses)
-                .inSmartMode(project)
-                .submit(NonUrgentExecutor.getInstance());
+    /**
+     * Reloads the preview on the current thread, which must hold a read lock.
+     * Use {@link #reload()} instead, which reloads in the background once indexing has finished.
+     */
+    public void reloadNow() {
+        // Module widgets are loaded by the widget library as the layout uses them.
+        Document document = FileDocumentManager.getInstance().getDocument(file);
+        String text = document != null ? document.getText() : LoadTextUtil.loadText(file).toString();
+        int requestedFullReloads = fullReloadRequests.get();
+        preview.reload(project, file, text, requestedFullReloads == completedFullReloads);
+        completedFullReloads = requestedFullReloads;
     }
 
     /**
@@ -274,7 +245,7 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
 
     @Override
     public void documentChanged(@NotNull DocumentEvent event) {
-        preview.reload(project, file, event.getDocument().getText());
+        reloadEditedLayout();
     }
 
     @Override
@@ -288,7 +259,7 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
         loadingPanel.stopLoading();
         loadingPanel.setVisible(false);
 
-        preview.reload(project, file, LoadTextUtil.loadText(file).toString());
+        reload();
     }
 
     @Nullable
@@ -301,6 +272,27 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
         return preview.getRequiredModules();
     }
 
+    public Map<String, String> getMissingAssets() {
+        return preview.getMissingAssets();
+    }
+
+    /**
+     * Returns true if the preview shows widgets loaded by any of the given class loaders,
+     * or uses widgets that could not be loaded at all.
+     */
+    public boolean usesWidgetsFrom(Set<? extends ClassLoader> classLoaders) {
+        if (preview.hasMissingWidgets()) {
+            return true;
+        }
+
+        for (Class<? extends UIWidget> widgetClass : preview.getUsedWidgetClasses()) {
+            if (classLoaders.contains(widgetClass.getClassLoader())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static final class NuiPanel extends JBPanel<NuiPanel> implements MouseListener, MouseMotionListener {
         private final MouseDevice nuiMouse;
         private final CanvasImpl nuiCanvas;
@@ -309,9 +301,17 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
         private GestaltModuleService gestaltModuleService;
         private final UIElementLoader uiElementLoader;
         private Set<Module> requiredModules = new HashSet<>();
+        private Map<String, String> missingAssets = Collections.emptyMap();
+        private Set<Class<? extends UIWidget>> usedWidgetClasses = Collections.emptySet();
+        private boolean missingWidgets;
         private long lastUpdateTime;
         private UISkin defaultSkin;
         private UIWidget rootWidget;
+        private UIElementLoader.LayoutTree layoutTree;
+        /**
+         * The asset generation that the widgets in {@link #layoutTree} were built with.
+         */
+        private long layoutAssetGeneration;
 
         public NuiPanel(GestaltModuleService gestaltModuleService) {
             this.setLayout(new BorderLayout());
@@ -323,7 +323,7 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
             this.addMouseMotionListener(this);
 
             this.gestaltModuleService = gestaltModuleService;
-            uiElementLoader = new UIElementLoader(gestaltModuleService);
+            uiElementLoader = gestaltModuleService.getLayoutLoader();
 
             errorLabel = new JTextArea("");
             errorLabel.setLineWrap(true);
@@ -339,22 +339,41 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
                     .build();
 
             nuiMouse = new AwtMouseDevice(this);
-            nuiCanvasRenderer = new AwtCanvasRenderer(new Vector2i(size.width, size.height));
+            nuiCanvasRenderer = new AwtCanvasRenderer(new Vector2i(size.width, size.height), this::repaint);
             nuiCanvas = new CanvasImpl(nuiCanvasRenderer, new FocusManagerImpl(), new NullKeyboardDevice(),
                     nuiMouse, null, defaultSkin, 100);
         }
 
-        public void reload(Project project, VirtualFile file, String json) {
+        /**
+         * @param incremental whether the widgets from the previous load can be re-used where the layout is unchanged
+         */
+        public synchronized void reload(Project project, VirtualFile file, String json, boolean incremental) {
             requiredModules.clear();
             try {
-                uiElementLoader.setModuleContext(gestaltModuleService.getModuleIdForFile(file));
-                rootWidget = uiElementLoader.load(json);
+                // Widgets are only re-used from complete layouts, since missing classes or assets may have arrived since.
+                // Widgets built before any skin, texture or font changed still use the previous versions of them.
+                long assetGeneration = gestaltModuleService.getAssetGeneration();
+                boolean reuseWidgets = incremental && !missingWidgets && missingAssets.isEmpty()
+                        && assetGeneration == layoutAssetGeneration;
+                UIElementLoader.LoadContext loadContext = new UIElementLoader.LoadContext(
+                        gestaltModuleService.getModuleIdForFile(file), reuseWidgets ? layoutTree : null);
+                JsonElement layout = new JsonParser().parse(json);
+                showLayout(uiElementLoader.load(layout, loadContext), loadContext);
+                layoutTree = loadContext.getLayoutTree();
+                layoutAssetGeneration = assetGeneration;
+                missingAssets = Map.copyOf(loadContext.getMissingAssets());
+                usedWidgetClasses = Set.copyOf(loadContext.getUsedWidgetClasses());
                 errorLabel.setVisible(false);
-                Set<String> missingClasses = uiElementLoader.getMissingClasses();
-                for (String missingClass : missingClasses) {
-                    PsiClass[] missingClassCandidates = PsiShortNamesCache.getInstance(project)
-                            .getClassesByName(missingClass, GlobalSearchScope.projectScope(project));
-                    for (PsiClass candidate : missingClassCandidates) {
+                Set<String> missingClasses = loadContext.getMissingClasses();
+                missingWidgets = !missingClasses.isEmpty();
+                Module codeModule = missingWidgets ? WidgetInheritors.findCodeModule(project, file) : null;
+                if (codeModule != null) {
+                    // The widgets that could not be loaded are most likely in a module that has not been built yet.
+                    for (PsiClass candidate : WidgetInheritors.getWidgetClasses(codeModule)) {
+                        if (!missingClasses.contains(candidate.getName())) {
+                            continue;
+                        }
+
                         Module candidateModule = ModuleUtil.findModuleForFile(candidate.getContainingFile().getVirtualFile(), project);
                         if (candidateModule != null) {
                             requiredModules.add(candidateModule);
@@ -362,8 +381,16 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
                     }
                 }
                 EditorNotifications.getInstance(project).updateNotifications(file);
+            } catch (ProcessCanceledException e) {
+                // Widgets are looked up in the indexes, so a write action may cancel the load. It is restarted.
+                throw e;
             } catch (Throwable t) {
-                rootWidget = null;
+                showLayout(null, null);
+                layoutTree = null;
+                missingAssets = Collections.emptyMap();
+                usedWidgetClasses = Collections.emptySet();
+                // The error may be caused by a widget class, so the preview should be tried again once classes change.
+                missingWidgets = true;
                 StringBuilder stacktraceBuilder = new StringBuilder();
                 stacktraceBuilder.append(t.getClass().getName());
                 stacktraceBuilder.append(": ");
@@ -389,15 +416,36 @@ public class NuiFilePreviewer implements FileEditor, DocumentListener, DumbServi
                 errorLabel.setVisible(true);
             }
 
-            ApplicationManager.getApplication().invokeLater(this::repaint);
-
             defaultSkin = gestaltModuleService.getDefaultSkin();
         }
 
+        private void showLayout(@Nullable UIWidget widget, @Nullable UIElementLoader.LoadContext loadContext) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                // The previous layout is only drawn on this thread, so the widgets moved from it are detached here.
+                if (loadContext != null) {
+                    loadContext.detachReusedWidgets();
+                }
+                rootWidget = widget;
+                repaint();
+            });
+        }
+
         public Set<Module> getRequiredModules() {
             return requiredModules;
         }
 
+        public Map<String, String> getMissingAssets() {
+            return missingAssets;
+        }
+
+        public Set<Class<? extends UIWidget>> getUsedWidgetClasses() {
+            return usedWidgetClasses;
+        }
+
+        public boolean hasMissingWidgets() {
+            return missingWidgets;
+        }
+
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
@@ -16,12 +16,11 @@
 
 package com.github.benjaminamos.nuiplugin.languages.contributors;
 
+import com.github.benjaminamos.nuiplugin.utils.WidgetInheritors;
 import com.intellij.codeInsight.lookup.LookupElement;
 import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.json.psi.JsonStringLiteral;
 import com.intellij.openapi.module.Module;
-import com.intellij.openapi.module.ModuleManager;
-import com.intellij.openapi.module.ModuleUtil;
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
@@ -30,7 +29,6 @@ import com.intellij.psi.PsiPolyVariantReferenceBase;
 import com.intellij.psi.ResolveResult;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.PsiShortNamesCache;
-import com.intellij.psi.search.searches.ClassInheritorsSearch;
 import com.intellij.util.IncorrectOperationException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -82,25 +80,16 @@ public class NuiTypeReference extends PsiPolyVariantReferenceBase<JsonStringLite
 
     @Override
     public Object @NotNull [] getVariants() {
-        PsiClass uiWidgetClass = JavaPsiFacade.getInstance(myElement.getProject())
-                .findClass(UIWidget.class.getName(), GlobalSearchScope.allScope(myElement.getProject()));
-
-        @Nullable Module fileModule = ModuleUtil.findModuleForFile(myElement.getContainingFile().getOriginalFile().getVirtualFile(), myElement.getProject());
-        if (fileModule == null) {
+        @Nullable Module codeModule = WidgetInheritors.findCodeModule(myElement.getProject(),
+                myElement.getContainingFile().getOriginalFile().getVirtualFile());
+        if (codeModule == null) {
             return new Object[0];
         }
 
-        @Nullable Module codeModule = ModuleManager.getInstance(myElement.getProject()).findModuleByName(fileModule.getName() + ".main");
-        if (codeModule != null) {
-            fileModule = codeModule;
-        }
-
-        PsiClass[] inherited = ClassInheritorsSearch
-                .search(uiWidgetClass, fileModule.getModuleRuntimeScope(false), true)
-                .toArray(new PsiClass[0]);
-        LookupElement[] variants = new LookupElement[inherited.length];
-        for (int classNo = 0; classNo < inherited.length; classNo++) {
-            PsiClass variant = inherited[classNo];
+        List<PsiClass> inherited = WidgetInheritors.getWidgetClasses(codeModule);
+        LookupElement[] variants = new LookupElement[inherited.size()];
+        for (int classNo = 0; classNo < inherited.size(); classNo++) {
+            PsiClass variant = inherited.get(classNo);
             variants[classNo] = LookupElementBuilder.create(variant)
                     .withLookupString("engine:" + variant.getName())
                     .withIcon(variant.getIcon(0));
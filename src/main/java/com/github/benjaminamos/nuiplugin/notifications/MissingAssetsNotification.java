@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.notifications;
+
+import com.github.benjaminamos.nuiplugin.languages.NuiFilePreviewer;
+import com.github.benjaminamos.nuiplugin.languages.NuiFileSplitEditor;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.EditorNotificationPanel;
+import com.intellij.ui.EditorNotifications;
+import com.intellij.ui.LightColors;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+public class MissingAssetsNotification extends EditorNotifications.Provider<EditorNotificationPanel> {
+    private static final Key<EditorNotificationPanel> KEY = Key.create("com.github.benjaminamos.nuiplugin.notifications.MissingAssetsNotification");
+
+    @Override
+    public @NotNull Key<EditorNotificationPanel> getKey() {
+        return KEY;
+    }
+
+    @Override
+    public @Nullable EditorNotificationPanel createNotificationPanel(@NotNull VirtualFile file,
+                                                                     @NotNull FileEditor fileEditor,
+                                                                     @NotNull Project project) {
+        if (fileEditor instanceof NuiFileSplitEditor) {
+            NuiFilePreviewer filePreviewer = (NuiFilePreviewer) ((NuiFileSplitEditor) fileEditor).getPreviewEditor();
+            Map<String, String> missingAssets = filePreviewer.getMissingAssets();
+            if (missingAssets.isEmpty()) {
+                return null;
+            }
+
+            StringBuilder details = new StringBuilder("<html>");
+            for (Map.Entry<String, String> missingAsset : missingAssets.entrySet()) {
+                details.append(StringUtil.escapeXmlEntities(missingAsset.getKey()))
+                        .append(": ")
+                        .append(StringUtil.escapeXmlEntities(missingAsset.getValue()))
+                        .append("<br>");
+            }
+            details.append("</html>");
+
+            EditorNotificationPanel panel = new EditorNotificationPanel(LightColors.YELLOW)
+                    .text(missingAssets.size() == 1
+                            ? "1 asset used by this file could not be loaded."
+                            : missingAssets.size() + " assets used by this file could not be loaded.");
+            panel.setToolTipText(details.toString());
+            return panel;
+        } else {
+            return null;
+        }
+    }
+}
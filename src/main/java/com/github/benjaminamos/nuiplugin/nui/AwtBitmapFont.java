@@ -25,7 +25,13 @@ import com.github.benjaminamos.nuiplugin.nui.bitmapfont.FontData;
 import org.joml.Vector2i;
 import org.terasology.nui.asset.font.Font;
 
+import java.awt.Image;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class AwtBitmapFont implements Font {
     private final FontData bitmapFont;
@@ -101,6 +107,14 @@ public class AwtBitmapFont implements Font {
         return bitmapFont.getCharacter(c);
     }
 
+    public Collection<Image> getPages() {
+        Set<Image> pages = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<Integer, FontCharacter> character : bitmapFont.getCharacters()) {
+            pages.add(character.getValue().getPage());
+        }
+        return pages;
+    }
+
     @Override
     public int getUnderlineOffset() {
         return bitmapFont.getUnderlineOffset();
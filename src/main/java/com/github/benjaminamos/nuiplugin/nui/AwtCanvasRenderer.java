@@ -38,25 +38,106 @@ import org.terasology.nui.util.NUIMathUtil;
 import org.terasology.nui.util.RectUtility;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.awt.image.RGBImageFilter;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("UseJBColor")
 public class AwtCanvasRenderer implements CanvasRenderer {
+    /**
+     * Only weakly references the source image, so that cached scaled images do not keep the (much larger) decoded
+     * textures in memory once the asset cache has let go of them. Keys for collected images never match again,
+     * and are evicted like any other unused entry.
+     */
+    private static final class ScaledImageKey {
+        private final WeakReference<Image> image;
+        private final int imageHash;
+        private final int sourceMinX;
+        private final int sourceMinY;
+        private final int sourceMaxX;
+        private final int sourceMaxY;
+        private final int width;
+        private final int height;
+        private final int tint;
+        private final float alpha;
+
+        private ScaledImageKey(Image image, int sourceMinX, int sourceMinY, int sourceMaxX, int sourceMaxY,
+                               int width, int height, int tint, float alpha) {
+            this.image = new WeakReference<>(image);
+            this.imageHash = System.identityHashCode(image);
+            this.sourceMinX = sourceMinX;
+            this.sourceMinY = sourceMinY;
+            this.sourceMaxX = sourceMaxX;
+            this.sourceMaxY = sourceMaxY;
+            this.width = width;
+            this.height = height;
+            this.tint = tint;
+            this.alpha = alpha;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ScaledImageKey)) {
+                return false;
+            }
+            ScaledImageKey other = (ScaledImageKey) obj;
+            Image image = this.image.get();
+            return image != null && image == other.image.get() && sourceMinX == other.sourceMinX && sourceMinY == other.sourceMinY
+                    && sourceMaxX == other.sourceMaxX && sourceMaxY == other.sourceMaxY
+                    && width == other.width && height == other.height
+                    && tint == other.tint && Float.compare(alpha, other.alpha) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = imageHash;
+            hash = 31 * hash + sourceMinX;
+            hash = 31 * hash + sourceMinY;
+            hash = 31 * hash + sourceMaxX;
+            hash = 31 * hash + sourceMaxY;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + tint;
+            return 31 * hash + Float.floatToIntBits(alpha);
+        }
+    }
+
     private static final java.awt.Color TRANSPARENT = new java.awt.Color(0, 0, 0, 0);
     private static final AwtFont FALLBACK_FONT = new AwtFont(UIUtil.getLabelFont());
 
     // NOTE: These constants were taken from Terasology's FontMeshBuilder class
     private static final int SHADOW_HORIZONTAL_OFFSET = 1;
     private static final int SHADOW_VERTICAL_OFFSET = 1;
+    private static final long MAX_SCALED_IMAGE_CACHE_PIXELS = 16L * 1024 * 1024;
 
+    private final Runnable repaintRequest;
     private Graphics graphics;
     private Vector2i size;
     private Table<Image, Colorc, Image> tintedTextCache = HashBasedTable.create();
-
-    public AwtCanvasRenderer(Vector2i size) {
+    /**
+     * Textures that have already been scaled (and tinted) for drawing, so that repeated paints are plain copies.
+     * Iterates from least to most recently used.
+     */
+    private final Map<ScaledImageKey, Image> scaledImageCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long scaledImageCachePixels;
+
+    /**
+     * @param repaintRequest requests another paint, once textures that were still being decoded are ready.
+     *                       It can be called from any thread.
+     */
+    public AwtCanvasRenderer(Vector2i size, Runnable repaintRequest) {
         this.size = size;
+        this.repaintRequest = repaintRequest;
     }
 
     @Override
@@ -100,31 +181,88 @@ public class AwtCanvasRenderer implements CanvasRenderer {
     @Override
     public void drawTexture(UITextureRegion texture, Colorc color, ScaleMode mode, Rectanglei absoluteRegion,
                             float ux, float uy, float uw, float uh, float alpha) {
+        if (texture instanceof DeferredTextureRegion) {
+            texture = ((DeferredTextureRegion) texture).getTexture();
+            if (texture == null) {
+                // Still loading. The preview is repainted once it has loaded.
+                return;
+            }
+        }
+
         if (!(texture instanceof AwtTextureRegion)) {
             throw new IllegalArgumentException("Textures must be of type AwtTextureRegion!");
         }
 
         AwtTextureRegion awtTexture = (AwtTextureRegion) texture;
+        boolean tinted = !color.equals(org.terasology.nui.Color.white) || alpha != 1.0f;
 
-        Image actualImage = awtTexture.getAwtImage();
-        if (!color.equals(org.terasology.nui.Color.white) || alpha != 1.0f) {
-            actualImage = createTintedImage(awtTexture.getAwtImage(), color, alpha);
-        }
+        if (mode != ScaleMode.TILED) {
+            Vector2f scale = mode.scaleForRegion(absoluteRegion, texture.getWidth(), texture.getHeight());
+            int width = (int) scale.x;
+            int height = (int) scale.y;
+            if (width <= 0 || height <= 0) {
+                return;
+            }
 
-        Vector2f scale = mode.scaleForRegion(absoluteRegion, texture.getWidth(), texture.getHeight());
+            // Lazily loaded textures are decoded in the background, the first time that they are drawn.
+            AwtTextureRegion.DecodedImage decodedImage =
+                    awtTexture.getDecodedImageAsync(getMaxSubsampling(texture, uw, uh, width, height), repaintRequest);
+            if (decodedImage == null || decodedImage.isPlaceholder()) {
+                return;
+            }
 
-        if (mode != ScaleMode.TILED) {
-            graphics.drawImage(actualImage,
-                    absoluteRegion.minX,
-                    absoluteRegion.minY,
-                    absoluteRegion.minX + (int) scale.x,
-                    absoluteRegion.minY + (int) scale.y,
-                    (int) Math.ceil(ux * texture.getWidth()),
-                    (int) Math.ceil(uy * texture.getWidth()),
-                    (int) Math.ceil((ux + uw) * texture.getWidth()),
-                    (int) Math.ceil((uy + uh) * texture.getHeight()),
-                    TRANSPARENT, null);
+            Image image = decodedImage.getImage();
+            int subsampling = decodedImage.getSubsampling();
+            // Sub-region textures, such as atlas sub-images, share their image with the rest of the texture.
+            Rectanglei pixelRegion = awtTexture.getPixelRegion();
+            int sourceMinX = (pixelRegion.minX + (int) Math.ceil(ux * texture.getWidth())) / subsampling;
+            int sourceMinY = (pixelRegion.minY + (int) Math.ceil(uy * texture.getHeight())) / subsampling;
+            int sourceMaxX = Math.max((pixelRegion.minX + (int) Math.ceil((ux + uw) * texture.getWidth())) / subsampling, sourceMinX + 1);
+            int sourceMaxY = Math.max((pixelRegion.minY + (int) Math.ceil((uy + uh) * texture.getHeight())) / subsampling, sourceMinY + 1);
+
+            if (!tinted && sourceMaxX - sourceMinX == width && sourceMaxY - sourceMinY == height) {
+                graphics.drawImage(image,
+                        absoluteRegion.minX, absoluteRegion.minY, absoluteRegion.minX + width, absoluteRegion.minY + height,
+                        sourceMinX, sourceMinY, sourceMaxX, sourceMaxY,
+                        TRANSPARENT, null);
+                return;
+            }
+
+            if ((long) width * height > MAX_SCALED_IMAGE_CACHE_PIXELS / 4) {
+                // Too large to be worth caching.
+                Image actualImage = tinted ? createTintedImage(image, color, alpha) : image;
+                graphics.drawImage(actualImage,
+                        absoluteRegion.minX, absoluteRegion.minY, absoluteRegion.minX + width, absoluteRegion.minY + height,
+                        sourceMinX, sourceMinY, sourceMaxX, sourceMaxY,
+                        TRANSPARENT, null);
+                return;
+            }
+
+            ScaledImageKey key = new ScaledImageKey(image, sourceMinX, sourceMinY, sourceMaxX, sourceMaxY, width, height,
+                    tinted ? color.rgba() : 0xFFFFFFFF, tinted ? alpha : 1.0f);
+            Image scaledImage = scaledImageCache.get(key);
+            if (scaledImage == null) {
+                scaledImage = createScaledImage(image, sourceMinX, sourceMinY, sourceMaxX, sourceMaxY, width, height);
+                if (tinted) {
+                    scaledImage = createTintedImage(scaledImage, color, alpha);
+                }
+                cacheScaledImage(key, scaledImage);
+            }
+
+            // The cached image already has the destination size, so this is a 1:1 copy.
+            graphics.drawImage(scaledImage, absoluteRegion.minX, absoluteRegion.minY, null);
         } else {
+            AwtTextureRegion.DecodedImage decodedImage = awtTexture.getDecodedImageAsync(1, repaintRequest);
+            if (decodedImage == null || decodedImage.isPlaceholder() || decodedImage.getSubsampling() != 1) {
+                return;
+            }
+
+            Image actualImage = decodedImage.getImage();
+            if (tinted) {
+                actualImage = createTintedImage(actualImage, color, alpha);
+            }
+
+            Rectanglei pixelRegion = awtTexture.getPixelRegion();
             int textureWidth = texture.getWidth();
             int textureHeight = texture.getHeight();
             for (int x = 0; x < absoluteRegion.getSizeX() / textureWidth; x++) {
@@ -136,16 +274,54 @@ public class AwtCanvasRenderer implements CanvasRenderer {
                             startY,
                             startX + textureWidth,
                             startY + textureHeight,
-                            (int) Math.ceil(ux * texture.getWidth()),
-                            (int) Math.ceil(uy * texture.getWidth()),
-                            (int) Math.ceil((ux + uw) * texture.getWidth()),
-                            (int) Math.ceil((uy + uh) * texture.getHeight()),
+                            pixelRegion.minX + (int) Math.ceil(ux * texture.getWidth()),
+                            pixelRegion.minY + (int) Math.ceil(uy * texture.getHeight()),
+                            pixelRegion.minX + (int) Math.ceil((ux + uw) * texture.getWidth()),
+                            pixelRegion.minY + (int) Math.ceil((uy + uh) * texture.getHeight()),
                             TRANSPARENT, null);
                 }
             }
         }
     }
 
+    /**
+     * Textures larger than the canvas that are drawn at a fraction of their size can be decoded with subsampling.
+     */
+    private int getMaxSubsampling(UITextureRegion texture, float uw, float uh, int width, int height) {
+        if ((long) texture.getWidth() * texture.getHeight() <= (long) size.x * size.y) {
+            return 1;
+        }
+
+        float sourceWidth = uw * texture.getWidth();
+        float sourceHeight = uh * texture.getHeight();
+        return Math.max((int) Math.min(sourceWidth / width, sourceHeight / height), 1);
+    }
+
+    private static Image createScaledImage(Image image, int sourceMinX, int sourceMinY, int sourceMaxX, int sourceMaxY,
+                                           int width, int height) {
+        BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D scaledGraphics = scaledImage.createGraphics();
+        try {
+            scaledGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            scaledGraphics.drawImage(image, 0, 0, width, height, sourceMinX, sourceMinY, sourceMaxX, sourceMaxY, null);
+        } finally {
+            scaledGraphics.dispose();
+        }
+        return scaledImage;
+    }
+
+    private void cacheScaledImage(ScaledImageKey key, Image scaledImage) {
+        scaledImageCache.put(key, scaledImage);
+        scaledImageCachePixels += (long) key.width * key.height;
+
+        Iterator<ScaledImageKey> keys = scaledImageCache.keySet().iterator();
+        while (scaledImageCachePixels > MAX_SCALED_IMAGE_CACHE_PIXELS && keys.hasNext()) {
+            ScaledImageKey eldestKey = keys.next();
+            scaledImageCachePixels -= (long) eldestKey.width * eldestKey.height;
+            keys.remove();
+        }
+    }
+
     private void drawBitmapFontString(String line, AwtBitmapFont bitmapFont, int minX, int minY, Colorc colour) {
         if (colour.equals(Color.transparent)) {
             return;
@@ -183,6 +359,9 @@ public class AwtCanvasRenderer implements CanvasRenderer {
     @Override
     public void drawText(String text, Font font, HorizontalAlign hAlign, VerticalAlign vAlign, Rectanglei absoluteRegion,
                          Colorc color, Colorc shadowColor, float alpha, boolean underlined) {
+        if (font instanceof DeferredFont) {
+            font = ((DeferredFont) font).getFont();
+        }
         if (font == null) {
             font = FALLBACK_FONT;
         }
@@ -216,6 +395,13 @@ public class AwtCanvasRenderer implements CanvasRenderer {
                                     float ux, float uy, float uw, float uh, float alpha) {
         // See https://github.com/Terasology/TutorialNui/wiki/Skinning#background-options for border rendering information
 
+        if (texture instanceof DeferredTextureRegion) {
+            texture = ((DeferredTextureRegion) texture).getTexture();
+            if (texture == null) {
+                return;
+            }
+        }
+
         Vector2i textureSize = new Vector2i(NUIMathUtil.ceilToInt(texture.getWidth() * uw), NUIMathUtil.ceilToInt(texture.getHeight() * uh));
 
         float borderTextureLeft = (float) border.getLeft() / texture.getWidth();
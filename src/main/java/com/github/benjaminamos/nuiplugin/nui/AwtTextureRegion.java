@@ -16,22 +16,152 @@
 
 package com.github.benjaminamos.nuiplugin.nui;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.JBHiDPIScaledImage;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Vector2i;
 import org.terasology.joml.geom.Rectanglef;
 import org.terasology.joml.geom.Rectanglei;
 import org.terasology.nui.UITextureRegion;
 
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 public class AwtTextureRegion implements UITextureRegion {
+    /**
+     * Decodes the pixels of a texture that was loaded without them.
+     */
+    @FunctionalInterface
+    public interface ImageSource {
+        /**
+         * @param subsampling only every {@code subsampling}th pixel in each direction needs to be decoded
+         */
+        Image read(int subsampling) throws IOException;
+    }
+
+    /**
+     * An image decoded from a texture, along with how it maps to texture coordinates.
+     */
+    public static final class DecodedImage {
+        private final Image image;
+        private final int subsampling;
+
+        private DecodedImage(Image image, int subsampling) {
+            this.image = image;
+            this.subsampling = subsampling;
+        }
+
+        public Image getImage() {
+            return image;
+        }
+
+        /**
+         * @return the number of texture pixels, in each direction, per image pixel
+         */
+        public int getSubsampling() {
+            return subsampling;
+        }
+
+        /**
+         * @return true if the texture could not be decoded, in which case the image is a blank placeholder that does
+         *         not match the texture's size and nothing should be drawn
+         */
+        public boolean isPlaceholder() {
+            return this == UNDECODABLE_IMAGE;
+        }
+    }
+
+    private static final Logger logger = Logger.getInstance(AwtTextureRegion.class);
+    /**
+     * Shared by every texture that fails to decode, rather than allocating a blank image the size of each one.
+     */
+    private static final DecodedImage UNDECODABLE_IMAGE = new DecodedImage(new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB), 1);
+    /**
+     * Larger images are likely to be drawn scaled down, so they are left to be decoded with subsampling once drawn.
+     */
+    private static final long MAX_PREFETCHED_PIXELS = 1024 * 1024;
+    private static final ExecutorService DECODE_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "NUI Texture Decoding", Runtime.getRuntime().availableProcessors());
     // For debugging
     private final String name;
-    private final Image image;
+    private final int width;
+    private final int height;
+    /**
+     * The texture that owns the image, when this is only a region of it (such as an atlas sub-image).
+     * Otherwise, this texture owns the image itself.
+     */
+    private final AwtTextureRegion imageOwner;
+    private final Rectanglei pixelRegion;
+    private final ImageSource imageSource;
+    private volatile DecodedImage decodedImage;
+    /**
+     * The subsampling that the image is being decoded with in the background, or 0 if it is not.
+     */
+    private int pendingSubsampling;
+    /**
+     * The callers waiting for a background decode to finish. The texture may be drawn by several previews at once.
+     */
+    private final Set<Runnable> pendingCallbacks = new LinkedHashSet<>();
 
     public AwtTextureRegion(String name, Image image) {
         this.name = name;
-        this.image = image;
+        if (image instanceof JBHiDPIScaledImage) {
+            double scale = ((JBHiDPIScaledImage) image).getScale();
+            this.width = (int) (image.getWidth(null) * scale);
+            this.height = (int) (image.getHeight(null) * scale);
+        } else {
+            this.width = image.getWidth(null);
+            this.height = image.getHeight(null);
+        }
+        this.imageOwner = this;
+        this.pixelRegion = new Rectanglei(0, 0, width, height);
+        this.imageSource = null;
+        this.decodedImage = new DecodedImage(image, 1);
+    }
+
+    /**
+     * Creates a texture whose pixels are only decoded when it is first drawn.
+     * @param width the width of the image, as read from its header
+     * @param height the height of the image, as read from its header
+     * @param imageSource decodes the image when it is needed
+     */
+    public AwtTextureRegion(String name, int width, int height, ImageSource imageSource) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.imageOwner = this;
+        this.pixelRegion = new Rectanglei(0, 0, width, height);
+        this.imageSource = imageSource;
+    }
+
+    private AwtTextureRegion(String name, AwtTextureRegion imageOwner, Rectanglei pixelRegion) {
+        this.name = name;
+        this.width = pixelRegion.getSizeX();
+        this.height = pixelRegion.getSizeY();
+        this.imageOwner = imageOwner;
+        this.pixelRegion = pixelRegion;
+        this.imageSource = null;
+    }
+
+    /**
+     * Creates a view of part of this texture. The view shares this texture's image, so it is never decoded twice.
+     * @param pixelRegion the region to view, in this texture's pixels
+     */
+    public AwtTextureRegion createSubRegion(String name, Rectanglei pixelRegion) {
+        // Clamp the region to this texture, in case a definition does not quite match the image.
+        Rectanglei ownerRegion = new Rectanglei(
+                Math.min(this.pixelRegion.minX + Math.max(pixelRegion.minX, 0), this.pixelRegion.maxX),
+                Math.min(this.pixelRegion.minY + Math.max(pixelRegion.minY, 0), this.pixelRegion.maxY),
+                Math.min(this.pixelRegion.minX + Math.max(pixelRegion.maxX, 0), this.pixelRegion.maxX),
+                Math.min(this.pixelRegion.minY + Math.max(pixelRegion.maxY, 0), this.pixelRegion.maxY));
+        return new AwtTextureRegion(name, imageOwner, ownerRegion);
     }
 
     /**
@@ -39,35 +169,25 @@ public class AwtTextureRegion implements UITextureRegion {
      */
     @Override
     public Rectanglef getRegion() {
-        return new Rectanglef(0, 0, getWidth(), getHeight());
+        return new Rectanglef(pixelRegion.minX, pixelRegion.minY, pixelRegion.maxX, pixelRegion.maxY);
     }
 
     /**
-     * @return The pixel region of the texture represented by this asset
+     * @return The pixel region of the texture represented by this asset, within its image
      */
     @Override
     public Rectanglei getPixelRegion() {
-        return new Rectanglei(0, 0, getWidth(), getHeight());
+        return new Rectanglei(pixelRegion.minX, pixelRegion.minY, pixelRegion.maxX, pixelRegion.maxY);
     }
 
     @Override
     public int getWidth() {
-        int width = image.getWidth(null);
-        if (image instanceof JBHiDPIScaledImage) {
-            return (int) (width * ((JBHiDPIScaledImage) image).getScale());
-        } else {
-            return width;
-        }
+        return width;
     }
 
     @Override
     public int getHeight() {
-        int height = image.getHeight(null);
-        if (image instanceof JBHiDPIScaledImage) {
-            return (int) (height * ((JBHiDPIScaledImage) image).getScale());
-        } else {
-            return height;
-        }
+        return height;
     }
 
     @Override
@@ -75,8 +195,117 @@ public class AwtTextureRegion implements UITextureRegion {
         return new Vector2i(getWidth(), getHeight());
     }
 
+    /**
+     * The images returned by this method and those below are of the whole texture, even for a sub-region.
+     * Use {@link #getPixelRegion()} to find the part of the image that this texture covers.
+     * @return the full-resolution image, decoding it first if needed
+     */
     public Image getAwtImage() {
-        return image;
+        return getDecodedImage(1).getImage();
+    }
+
+    /**
+     * Returns the image, decoding it first if needed. Large images that are drawn much smaller than their actual size
+     * can be decoded with subsampling, which is far quicker and uses far less memory.
+     * @param maxSubsampling the coarsest subsampling that is acceptable
+     */
+    public DecodedImage getDecodedImage(int maxSubsampling) {
+        if (imageOwner != this) {
+            return imageOwner.getDecodedImage(maxSubsampling);
+        }
+
+        DecodedImage decodedImage = this.decodedImage;
+        if (decodedImage != null && decodedImage.subsampling <= maxSubsampling) {
+            return decodedImage;
+        }
+
+        synchronized (this) {
+            decodedImage = this.decodedImage;
+            if (decodedImage == null || decodedImage.subsampling > maxSubsampling) {
+                decodedImage = decode(Math.max(maxSubsampling, 1));
+                this.decodedImage = decodedImage;
+            }
+            return decodedImage;
+        }
+    }
+
+    /**
+     * Returns the image without blocking. If it has not been decoded finely enough yet, it is decoded in the background
+     * and any coarser image decoded previously is returned in the meantime.
+     * @param maxSubsampling the coarsest subsampling that is acceptable
+     * @param onDecoded called, from a background thread, once the image has been decoded, or null if not needed
+     * @return the decoded image, or null if there is none yet
+     */
+    public DecodedImage getDecodedImageAsync(int maxSubsampling, @Nullable Runnable onDecoded) {
+        if (imageOwner != this) {
+            return imageOwner.getDecodedImageAsync(maxSubsampling, onDecoded);
+        }
+
+        DecodedImage decodedImage = this.decodedImage;
+        if (decodedImage != null && decodedImage.subsampling <= maxSubsampling) {
+            return decodedImage;
+        }
+
+        synchronized (this) {
+            // The decode may have finished since the image was checked above.
+            decodedImage = this.decodedImage;
+            if (decodedImage != null && decodedImage.subsampling <= maxSubsampling) {
+                return decodedImage;
+            }
+
+            if (onDecoded != null) {
+                pendingCallbacks.add(onDecoded);
+            }
+            int subsampling = Math.max(maxSubsampling, 1);
+            if (pendingSubsampling == 0 || pendingSubsampling > subsampling) {
+                pendingSubsampling = subsampling;
+                DECODE_EXECUTOR.execute(() -> {
+                    getDecodedImage(subsampling);
+                    List<Runnable> callbacks;
+                    synchronized (this) {
+                        if (pendingSubsampling == subsampling) {
+                            pendingSubsampling = 0;
+                        }
+                        callbacks = new ArrayList<>(pendingCallbacks);
+                        pendingCallbacks.clear();
+                    }
+                    // Callers that need a finer image than this one ask again when they are run.
+                    for (Runnable callback : callbacks) {
+                        callback.run();
+                    }
+                });
+            }
+        }
+        return decodedImage;
+    }
+
+    /**
+     * Starts decoding the full-resolution image in the background, so that it is ready by the time it is drawn.
+     * Large images are not decoded until they are drawn, since they may only need to be decoded with subsampling.
+     */
+    public void prefetchImage() {
+        if (imageOwner != this) {
+            imageOwner.prefetchImage();
+            return;
+        }
+
+        if ((long) width * height <= MAX_PREFETCHED_PIXELS) {
+            getDecodedImageAsync(1, null);
+        }
+    }
+
+    private DecodedImage decode(int subsampling) {
+        try {
+            Image image = imageSource.read(subsampling);
+            if (image != null) {
+                return new DecodedImage(image, subsampling);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to decode texture " + name, e);
+        }
+
+        // Draw nothing rather than failing every paint. The texture keeps the size read from its header.
+        return UNDECODABLE_IMAGE;
     }
 
     public String getName() {
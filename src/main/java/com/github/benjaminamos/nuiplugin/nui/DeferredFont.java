@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import org.joml.Vector2i;
+import org.terasology.nui.asset.font.Font;
+
+import java.util.List;
+
+/**
+ * A font that is still being loaded. It behaves as a fallback font until loading finishes.
+ */
+public class DeferredFont implements Font {
+    private final Font fallbackFont;
+    private volatile Font font;
+
+    public DeferredFont(Font fallbackFont) {
+        this.fallbackFont = fallbackFont;
+    }
+
+    /**
+     * @param font the loaded font, or null if it could not be loaded
+     */
+    public void complete(Font font) {
+        this.font = font;
+    }
+
+    /**
+     * @return the loaded font, or the fallback font if it is not loaded yet
+     */
+    public Font getFont() {
+        Font font = this.font;
+        return font != null ? font : fallbackFont;
+    }
+
+    @Override
+    public int getWidth(String text) {
+        return getFont().getWidth(text);
+    }
+
+    @Override
+    public int getWidth(Character c) {
+        return getFont().getWidth(c);
+    }
+
+    @Override
+    public int getHeight(String text) {
+        return getFont().getHeight(text);
+    }
+
+    @Override
+    public int getLineHeight() {
+        return getFont().getLineHeight();
+    }
+
+    @Override
+    public int getBaseHeight() {
+        return getFont().getBaseHeight();
+    }
+
+    @Override
+    public Vector2i getSize(List<String> lines) {
+        return getFont().getSize(lines);
+    }
+
+    @Override
+    public boolean hasCharacter(Character c) {
+        return getFont().hasCharacter(c);
+    }
+
+    @Override
+    public int getUnderlineOffset() {
+        return getFont().getUnderlineOffset();
+    }
+
+    @Override
+    public int getUnderlineThickness() {
+        return getFont().getUnderlineThickness();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import org.joml.Vector2i;
+import org.terasology.joml.geom.Rectanglef;
+import org.terasology.joml.geom.Rectanglei;
+import org.terasology.nui.UITextureRegion;
+
+/**
+ * A texture that is still being loaded. It is empty, and draws nothing, until loading finishes.
+ */
+public class DeferredTextureRegion implements UITextureRegion {
+    private volatile UITextureRegion texture;
+
+    /**
+     * @param texture the loaded texture, or null if it could not be loaded
+     */
+    public void complete(UITextureRegion texture) {
+        this.texture = texture;
+    }
+
+    /**
+     * @return the loaded texture, or null if it is not loaded yet
+     */
+    public UITextureRegion getTexture() {
+        return texture;
+    }
+
+    @Override
+    public Rectanglef getRegion() {
+        UITextureRegion texture = this.texture;
+        return texture != null ? texture.getRegion() : new Rectanglef();
+    }
+
+    @Override
+    public Rectanglei getPixelRegion() {
+        UITextureRegion texture = this.texture;
+        return texture != null ? texture.getPixelRegion() : new Rectanglei();
+    }
+
+    @Override
+    public int getWidth() {
+        UITextureRegion texture = this.texture;
+        return texture != null ? texture.getWidth() : 0;
+    }
+
+    @Override
+    public int getHeight() {
+        UITextureRegion texture = this.texture;
+        return texture != null ? texture.getHeight() : 0;
+    }
+
+    @Override
+    public Vector2i size() {
+        return new Vector2i(getWidth(), getHeight());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.terasology.joml.geom.Rectanglei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A texture atlas, which names regions of a single texture. Its sub-images are referenced by fragment URNs,
+ * such as {@code engine:items#pickaxe}, and all share the atlas texture's decoded image.
+ * <p>
+ * The format follows Terasology's atlas definitions: named sub-images can either be laid out on a grid
+ * ({@code grid} or {@code grids}) or placed freely ({@code subimages}).
+ */
+public class TextureAtlas {
+    private final String textureUrn;
+    private final Map<String, AwtTextureRegion> subImages;
+
+    private TextureAtlas(String textureUrn, Map<String, AwtTextureRegion> subImages) {
+        this.textureUrn = textureUrn;
+        this.subImages = subImages;
+    }
+
+    /**
+     * @param textureLoader loads the atlas texture from its URN
+     */
+    public static TextureAtlas load(InputStream inputStream, Function<String, AwtTextureRegion> textureLoader) throws IOException {
+        JsonObject definition;
+        try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+            definition = new JsonParser().parse(reader).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Invalid atlas definition", e);
+        }
+
+        String textureUrn = readString(definition.get("texture"), "texture");
+        AwtTextureRegion texture = textureLoader.apply(textureUrn);
+        if (texture == null) {
+            throw new IOException("Atlas texture '" + textureUrn + "' could not be loaded");
+        }
+
+        // Regions are given relative to the declared texture size, which need not match the image's actual size.
+        float scaleX = 1.0f;
+        float scaleY = 1.0f;
+        if (definition.has("textureSize")) {
+            int[] textureSize = readVector(definition.get("textureSize"));
+            if (textureSize[0] <= 0 || textureSize[1] <= 0) {
+                throw new IOException("Invalid atlas definition - textureSize must be positive but was "
+                        + textureSize[0] + "x" + textureSize[1]);
+            }
+            scaleX = (float) texture.getWidth() / textureSize[0];
+            scaleY = (float) texture.getHeight() / textureSize[1];
+        }
+
+        Map<String, AwtTextureRegion> subImages = new HashMap<>();
+        if (definition.has("grid")) {
+            addGrid(readObject(definition.get("grid"), "grid"), texture, scaleX, scaleY, subImages);
+        }
+        if (definition.has("grids")) {
+            for (JsonElement grid : readArray(definition.get("grids"), "grids")) {
+                addGrid(readObject(grid, "grid"), texture, scaleX, scaleY, subImages);
+            }
+        }
+        if (definition.has("subimages")) {
+            for (JsonElement subImage : readArray(definition.get("subimages"), "subimages")) {
+                JsonObject subImageDefinition = readObject(subImage, "sub-image");
+                int[] min = readVector(subImageDefinition.get("min"));
+                int[] max;
+                if (subImageDefinition.has("size")) {
+                    int[] size = readVector(subImageDefinition.get("size"));
+                    max = new int[] {min[0] + size[0], min[1] + size[1]};
+                } else {
+                    max = readVector(subImageDefinition.get("max"));
+                }
+                addSubImage(readString(subImageDefinition.get("name"), "sub-image name"), texture, min[0], min[1], max[0], max[1],
+                        scaleX, scaleY, subImages);
+            }
+        }
+
+        return new TextureAtlas(textureUrn, Collections.unmodifiableMap(subImages));
+    }
+
+    private static void addGrid(JsonObject grid, AwtTextureRegion texture, float scaleX, float scaleY,
+                                Map<String, AwtTextureRegion> subImages) throws IOException {
+        int[] tileSize = readVector(grid.get("tileSize"));
+        int[] gridDimensions = readVector(grid.get("gridDimensions"));
+        int[] gridOffset = grid.has("gridOffset") ? readVector(grid.get("gridOffset")) : new int[] {0, 0};
+        if (!grid.has("tileNames") || gridDimensions[0] <= 0) {
+            return;
+        }
+
+        JsonArray tileNames = readArray(grid.get("tileNames"), "tileNames");
+        for (int tileNo = 0; tileNo < tileNames.size() && tileNo < gridDimensions[0] * gridDimensions[1]; tileNo++) {
+            int minX = gridOffset[0] + (tileNo % gridDimensions[0]) * tileSize[0];
+            int minY = gridOffset[1] + (tileNo / gridDimensions[0]) * tileSize[1];
+            addSubImage(readString(tileNames.get(tileNo), "tile name"), texture, minX, minY, minX + tileSize[0], minY + tileSize[1],
+                    scaleX, scaleY, subImages);
+        }
+    }
+
+    private static void addSubImage(String name, AwtTextureRegion texture, int minX, int minY, int maxX, int maxY,
+                                    float scaleX, float scaleY, Map<String, AwtTextureRegion> subImages) {
+        Rectanglei pixelRegion = new Rectanglei(
+                Math.round(minX * scaleX), Math.round(minY * scaleY),
+                Math.round(maxX * scaleX), Math.round(maxY * scaleY));
+        subImages.put(name.toLowerCase(Locale.ROOT), texture.createSubRegion(texture.getName() + "#" + name, pixelRegion));
+    }
+
+    private static int[] readVector(JsonElement json) throws IOException {
+        if (json == null || !json.isJsonArray() || json.getAsJsonArray().size() != 2) {
+            throw new IOException("Invalid atlas definition - expected a two-element vector but found " + json);
+        }
+        JsonArray vector = json.getAsJsonArray();
+        for (JsonElement component : vector) {
+            if (!component.isJsonPrimitive() || !component.getAsJsonPrimitive().isNumber()) {
+                throw new IOException("Invalid atlas definition - expected a two-element vector but found " + json);
+            }
+        }
+        return new int[] {vector.get(0).getAsInt(), vector.get(1).getAsInt()};
+    }
+
+    private static JsonObject readObject(JsonElement json, String description) throws IOException {
+        if (json == null || !json.isJsonObject()) {
+            throw new IOException("Invalid atlas definition - expected " + description + " to be an object but found " + json);
+        }
+        return json.getAsJsonObject();
+    }
+
+    private static JsonArray readArray(JsonElement json, String description) throws IOException {
+        if (json == null || !json.isJsonArray()) {
+            throw new IOException("Invalid atlas definition - expected " + description + " to be an array but found " + json);
+        }
+        return json.getAsJsonArray();
+    }
+
+    private static String readString(JsonElement json, String description) throws IOException {
+        if (json == null || !json.isJsonPrimitive() || !json.getAsJsonPrimitive().isString()) {
+            throw new IOException("Invalid atlas definition - expected " + description + " to be a string but found " + json);
+        }
+        return json.getAsString();
+    }
+
+    public String getTextureUrn() {
+        return textureUrn;
+    }
+
+    /**
+     * @param name the name of the sub-image, as used in URN fragments
+     * @return the sub-image, or null if there is none with that name
+     */
+    public AwtTextureRegion getSubImage(String name) {
+        return subImages.get(name.toLowerCase(Locale.ROOT));
+    }
+}
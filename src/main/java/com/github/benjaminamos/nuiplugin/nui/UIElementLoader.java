@@ -32,11 +32,11 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
-import com.google.gson.annotations.SerializedName;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Vector2i;
 import org.terasology.nui.Color;
-import org.terasology.nui.LayoutConfig;
 import org.terasology.nui.LayoutHint;
 import org.terasology.nui.UILayout;
 import org.terasology.nui.UITextureRegion;
@@ -44,24 +44,29 @@ import org.terasology.nui.UIWidget;
 import org.terasology.nui.asset.font.Font;
 import org.terasology.nui.skin.UISkin;
 import org.terasology.nui.widgets.UILabel;
-import org.terasology.reflection.ReflectionUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Loads layouts. A single loader is shared by the whole project, and may be used from several threads at once.
+ */
 public class UIElementLoader {
     public static final String CONTENTS_FIELD = "contents";
     public static final String LAYOUT_INFO_FIELD = "layoutInfo";
@@ -69,51 +74,239 @@ public class UIElementLoader {
     public static final String TYPE_FIELD = "type";
     private static final Logger logger = Logger.getInstance(UIElementLoader.class);
 
+    /**
+     * The widgets built from each part of a layout, so that the unchanged parts can be re-used once the layout is edited.
+     */
+    public static final class LayoutTree {
+        private final LayoutNode root;
+
+        private LayoutTree(LayoutNode root) {
+            this.root = root;
+        }
+    }
+
+    private static final class LayoutNode {
+        private final JsonElement json;
+        private final UIWidget widget;
+        /**
+         * The nodes for each entry of the "contents" array, in order. Entries are null where no widget was built.
+         */
+        private final List<LayoutNode> children;
+
+        private LayoutNode(JsonElement json, UIWidget widget, List<LayoutNode> children) {
+            this.json = json;
+            this.widget = widget;
+            this.children = children;
+        }
+
+        private void collectWidgetClasses(Set<Class<? extends UIWidget>> widgetClasses) {
+            widgetClasses.add(widget.getClass());
+            for (LayoutNode child : children) {
+                if (child != null) {
+                    child.collectWidgetClasses(widgetClasses);
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of a single layout load.
+     */
+    public static final class LoadContext {
+        private final String moduleContext;
+        private final @Nullable LayoutTree previousLayout;
+        /**
+         * The context module followed by its dependencies, which is where widgets are searched for.
+         */
+        private List<String> moduleLookupOrder = List.of();
+        private final Set<String> missingClasses = new HashSet<>();
+        private final Set<Class<? extends UIWidget>> usedWidgetClasses = new HashSet<>();
+        private final Map<String, String> missingAssets = new HashMap<>();
+        /**
+         * The nodes of the previous layout that are identical to parts of the new layout, keyed by those parts.
+         */
+        private final Map<JsonElement, LayoutNode> unchangedNodes = new IdentityHashMap<>();
+        /**
+         * The layouts containing each unchanged node in the previous layout, which the re-used widgets are removed from.
+         */
+        private final Map<LayoutNode, UIWidget> previousParents = new IdentityHashMap<>();
+        private final List<LayoutNode> reusedNodes = new ArrayList<>();
+        private final Map<JsonElement, LayoutNode> builtNodes = new IdentityHashMap<>();
+        private @Nullable LayoutTree layoutTree;
+
+        /**
+         * @param moduleContext the module containing the layout, or null if it is not in a module
+         */
+        public LoadContext(String moduleContext) {
+            this(moduleContext, null);
+        }
+
+        /**
+         * @param moduleContext the module containing the layout, or null if it is not in a module
+         * @param previousLayout a previous version of the layout, whose unchanged widgets should be re-used
+         */
+        public LoadContext(String moduleContext, @Nullable LayoutTree previousLayout) {
+            this.moduleContext = moduleContext;
+            this.previousLayout = previousLayout;
+        }
+
+        public String getModuleContext() {
+            return moduleContext;
+        }
+
+        public Set<String> getMissingClasses() {
+            return missingClasses;
+        }
+
+        /**
+         * @return the widget classes used by the layout
+         */
+        public Set<Class<? extends UIWidget>> getUsedWidgetClasses() {
+            return usedWidgetClasses;
+        }
+
+        /**
+         * @return the assets that could not be loaded, with the reasons why
+         */
+        public Map<String, String> getMissingAssets() {
+            return missingAssets;
+        }
+
+        /**
+         * @return the widgets built from each part of the layout, which can be passed to the next load of the layout
+         */
+        public @Nullable LayoutTree getLayoutTree() {
+            return layoutTree;
+        }
+
+        /**
+         * Removes the widgets re-used by the new layout from the layouts that contained them in the previous layout,
+         * so that each widget only belongs to one layout. This must be called once the previous layout is no longer
+         * drawn, as it is left incomplete.
+         */
+        public void detachReusedWidgets() {
+            for (LayoutNode reusedNode : reusedNodes) {
+                UIWidget previousParent = previousParents.get(reusedNode);
+                if (previousParent instanceof UILayout) {
+                    ((UILayout<?>) previousParent).removeWidget(reusedNode.widget);
+                }
+            }
+            reusedNodes.clear();
+        }
+    }
+
     private final GestaltModuleService gestaltModuleService;
-    private String moduleContext;
-    private Set<String> missingClasses = new HashSet<>();
+    /**
+     * Gson caches the type adapters it creates, so instances are re-used for every load in the same module.
+     */
+    private final Map<String, Gson> gsonByModuleContext = new ConcurrentHashMap<>();
+    private final ThreadLocal<LoadContext> currentLoadContext = new ThreadLocal<>();
 
     public UIElementLoader(GestaltModuleService gestaltModuleService) {
         this.gestaltModuleService = gestaltModuleService;
     }
 
-    public UIWidget load(InputStream stream) throws IOException {
+    public UIWidget load(InputStream stream, LoadContext context) throws IOException {
         try (InputStreamReader reader = new InputStreamReader(stream)) {
-            return load(new JsonParser().parse(reader));
+            return load(new JsonParser().parse(reader), context);
         }
     }
 
-    public UIWidget load(String text) throws IOException {
-        return load(new JsonParser().parse(text));
+    public UIWidget load(String text, LoadContext context) throws IOException {
+        return load(new JsonParser().parse(text), context);
+    }
+
+    public UIWidget load(JsonElement element, LoadContext context) throws IOException {
+        context.moduleLookupOrder = gestaltModuleService.getModuleLookupOrder(context.moduleContext);
+        Gson gson = gsonByModuleContext.computeIfAbsent(
+                context.moduleContext != null ? context.moduleContext.toLowerCase(Locale.ROOT) : "",
+                moduleId -> createGson(context.moduleContext));
+
+        if (context.previousLayout != null) {
+            matchUnchangedNodes(element, context.previousLayout.root, null, context);
+        }
+
+        LoadContext previousContext = currentLoadContext.get();
+        currentLoadContext.set(context);
+        try {
+            UIWidget widget = gestaltModuleService.collectAssetFailures(context.missingAssets, () -> gson.fromJson(element, UIWidget.class));
+            LayoutNode root = context.builtNodes.get(element);
+            context.layoutTree = root != null ? new LayoutTree(root) : null;
+            return widget;
+        } finally {
+            currentLoadContext.set(previousContext);
+        }
     }
 
-    public UIWidget load(JsonElement element) throws IOException {
-        missingClasses.clear();
+    /**
+     * Finds the parts of a new layout that are identical to parts of the previous layout. Children are matched to
+     * identical children wherever they have moved to, and otherwise to the child that was in the same position,
+     * whose own children may be unchanged.
+     */
+    private static void matchUnchangedNodes(JsonElement json, LayoutNode previous, @Nullable UIWidget previousParent, LoadContext context) {
+        if (previous.json.equals(json)) {
+            context.unchangedNodes.put(json, previous);
+            context.previousParents.put(previous, previousParent);
+            return;
+        }
 
-        GsonBuilder gsonBuilder = new GsonBuilder()
+        JsonElement contents = json.isJsonObject() ? json.getAsJsonObject().get(CONTENTS_FIELD) : null;
+        if (contents == null || !contents.isJsonArray() || previous.children.isEmpty()) {
+            return;
+        }
+
+        JsonArray children = contents.getAsJsonArray();
+        Map<JsonElement, Deque<LayoutNode>> previousChildrenByJson = new HashMap<>();
+        for (LayoutNode previousChild : previous.children) {
+            if (previousChild != null) {
+                previousChildrenByJson.computeIfAbsent(previousChild.json, childJson -> new ArrayDeque<>()).add(previousChild);
+            }
+        }
+
+        LayoutNode[] matches = new LayoutNode[children.size()];
+        Set<LayoutNode> matchedChildren = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int childNo = 0; childNo < children.size(); childNo++) {
+            Deque<LayoutNode> identicalChildren = previousChildrenByJson.get(children.get(childNo));
+            if (identicalChildren != null && !identicalChildren.isEmpty()) {
+                matches[childNo] = identicalChildren.poll();
+                matchedChildren.add(matches[childNo]);
+            }
+        }
+        for (int childNo = 0; childNo < children.size() && childNo < previous.children.size(); childNo++) {
+            LayoutNode previousChild = previous.children.get(childNo);
+            if (matches[childNo] == null && previousChild != null && matchedChildren.add(previousChild)) {
+                matches[childNo] = previousChild;
+            }
+        }
+
+        for (int childNo = 0; childNo < children.size(); childNo++) {
+            if (matches[childNo] != null) {
+                matchUnchangedNodes(children.get(childNo), matches[childNo], previous.widget, context);
+            }
+        }
+    }
+
+    private Gson createGson(String moduleContext) {
+        return new GsonBuilder()
                 .registerTypeAdapterFactory(new CaseInsensitiveEnumTypeAdapterFactory())
                 .registerTypeAdapter(UISkin.class, (JsonDeserializer<UISkin>) (json, typeOfT, context) ->
                         gestaltModuleService.getSkinByUrn(moduleContext, json.getAsString()))
-                .registerTypeAdapter(UITextureRegion.class, new TextureRegionTypeAdapter(gestaltModuleService))
-                .registerTypeAdapter(Optional.class, new OptionalTextureRegionTypeAdapter(gestaltModuleService))
+                // Layouts draw the textures they set, so those are decoded concurrently while the rest of the layout loads.
+                .registerTypeAdapter(UITextureRegion.class, new TextureRegionTypeAdapter(gestaltModuleService, true))
+                .registerTypeAdapter(Optional.class, new OptionalTextureRegionTypeAdapter(gestaltModuleService, true))
                 .registerTypeAdapter(Font.class, new FontTypeAdapter(gestaltModuleService))
                 .registerTypeAdapter(Color.class, new ColorTypeHandler())
                 .registerTypeAdapter(Vector2i.class, new Vector2iTypeAdaptor())
-                .registerTypeHierarchyAdapter(UIWidget.class, new UIWidgetTypeAdapter());
-        Gson gson = gsonBuilder.create();
-        return gson.fromJson(element, UIWidget.class);
+                .registerTypeHierarchyAdapter(UIWidget.class, new UIWidgetTypeAdapter())
+                .create();
     }
 
-    public Set<String> getMissingClasses() {
-        return missingClasses;
-    }
-
-    public String getModuleContext() {
-        return moduleContext;
-    }
-
-    public void setModuleContext(String moduleContext) {
-        this.moduleContext = moduleContext;
+    /**
+     * Discards the cached Gson instances. Their type adapters may reference classes from retired class loaders,
+     * such as module layout hints.
+     */
+    public void clearCaches() {
+        gsonByModuleContext.clear();
     }
 
     private static final class Vector2iTypeAdaptor implements JsonDeserializer<Vector2i> {
@@ -136,158 +329,101 @@ public class UIElementLoader {
     private final class UIWidgetTypeAdapter implements JsonDeserializer<UIWidget> {
         @Override
         public UIWidget deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+            LoadContext loadContext = currentLoadContext.get();
+            LayoutNode unchangedNode = loadContext.unchangedNodes.get(json);
+            if (unchangedNode != null) {
+                // The widget is moved into the new layout. It stays in the previous layout until that is replaced,
+                // as the previous layout is still being drawn.
+                unchangedNode.collectWidgetClasses(loadContext.usedWidgetClasses);
+                loadContext.builtNodes.put(json, unchangedNode);
+                loadContext.reusedNodes.add(unchangedNode);
+                return unchangedNode.widget;
+            }
+
             if (json.isJsonPrimitive() && json.getAsJsonPrimitive().isString()) {
-                return new UILabel(json.getAsString());
+                UILabel label = new UILabel(json.getAsString());
+                loadContext.builtNodes.put(json, new LayoutNode(json, label, List.of()));
+                return label;
             }
 
             JsonObject jsonObject = json.getAsJsonObject();
 
             String type = jsonObject.get(TYPE_FIELD).getAsString();
-            Class<? extends UIWidget> widgetClass = gestaltModuleService.getWidgetLibrary().getWidgetClassByName(type);
+            Class<? extends UIWidget> widgetClass = gestaltModuleService.getWidgetLibrary().getWidgetClassByName(loadContext.moduleLookupOrder, type);
             if (widgetClass == null) {
-                if (moduleContext != null && !type.contains(":")) {
-                    widgetClass = gestaltModuleService.getWidgetLibrary().getWidgetClassByName(moduleContext + ":" + type);
-                }
-                if (widgetClass == null) {
-                    //logger.error("Unknown UIWidget type " + type);
-                    missingClasses.add(type);
-                    return null;
-                }
+                //logger.error("Unknown UIWidget type " + type);
+                loadContext.missingClasses.add(type);
+                return null;
             }
+            loadContext.usedWidgetClasses.add(widgetClass);
 
             String id = null;
             if (jsonObject.has(ID_FIELD)) {
                 id = jsonObject.get(ID_FIELD).getAsString();
             }
 
+            WidgetBindingPlan plan = WidgetBindingPlan.forClass(widgetClass);
             UIWidget element;
             try {
-                //element = widgetClass.newInstance();
-
-                Constructor<?> constructor;
-                try {
-                    constructor = widgetClass.getDeclaredConstructor();
-                } catch (NoSuchMethodException ignore) {
-                    constructor = widgetClass.getConstructors()[0];
-                }
-                if (constructor.getParameterCount() == 0) {
-                    element = (UIWidget) constructor.newInstance();
-                } else {
-                    Object[] args = new Object[constructor.getParameterCount()];
-                    for (int paramNo = 0; paramNo < constructor.getParameterCount(); paramNo++) {
-                        Class<?> paramType = constructor.getParameterTypes()[paramNo];
-                        // https://stackoverflow.com/a/38243203
-                        args[paramNo] = java.lang.reflect.Array.get(java.lang.reflect.Array.newInstance(paramType, 1), 0);
-                    }
-                    element = (UIWidget) constructor.newInstance(args);
-                }
-                if (id != null) {
-                    Class<?> parentClass = widgetClass;
-                    Field fieldMetadata = null;
-                    while (fieldMetadata == null && widgetClass != UIWidget.class) {
-                        try {
-                            fieldMetadata = parentClass.getDeclaredField(ID_FIELD);
-                        } catch (Throwable ignore) {
-                        }
-                        parentClass = parentClass.getSuperclass();
-                    }
-
-                    if (fieldMetadata == null) {
-                        logger.warn("UIWidget type " + element.getId() + " lacks id field " + element.getId());
-                    } else {
-                        fieldMetadata.setAccessible(true);
-                        fieldMetadata.set(element, id);
-                    }
+                element = plan.createWidget();
+                if (id != null && !plan.setId(element, id)) {
+                    logger.warn("UIWidget type " + type + " lacks id field " + id);
                 }
-            } catch (Exception e) {
-                logger.error("Failed to instantiate UI widget type " + widgetClass.getName(), e);
+            } catch (Throwable t) {
+                logger.error("Failed to instantiate UI widget type " + widgetClass.getName(), t);
                 return null;
             }
 
             // Deserialize normal fields.
-            Set<String> unknownFields = new HashSet<>();
             for (Entry<String, JsonElement> entry : jsonObject.entrySet()) {
                 String name = entry.getKey();
                 if (!ID_FIELD.equals(name)
                         && !CONTENTS_FIELD.equals(name)
                         && !TYPE_FIELD.equals(name)
-                        && !LAYOUT_INFO_FIELD.equals(name)) {
-                    unknownFields.add(name);
+                        && !LAYOUT_INFO_FIELD.equals(name)
+                        && !plan.hasField(name)) {
+                    logger.warn("Field '" + name + "' not recognized for " + typeOfT + " in " + json);
                 }
             }
 
-            for (Field field : getFields(widgetClass)) {
-                Class<?> fieldType = determineFieldType(field);
-
-                String serialisedFieldName;
-                SerializedName name = field.getAnnotation(SerializedName.class);
-                if (name != null) {
-                    serialisedFieldName = name.value();
-                } else {
-                    serialisedFieldName = field.getName();
-                }
-
-                Method setter;
-                try {
-                    setter = ReflectionUtil.findSetter(field.getName(), widgetClass, fieldType);
-                } catch (NoClassDefFoundError ignore) {
+            for (WidgetBindingPlan.FieldBinding field : plan.getFieldBindings()) {
+                JsonElement value = jsonObject.get(field.getSerialisedName());
+                if (value == null || field.getValueType() == null) {
                     continue;
                 }
 
-                if (jsonObject.has(serialisedFieldName)) {
-                    unknownFields.remove(serialisedFieldName);
-                    if (field.getName().equals(CONTENTS_FIELD) && UILayout.class.isAssignableFrom(widgetClass)) {
-                        continue;
-                    }
-                    try {
-                        if (List.class.isAssignableFrom(field.getType())) {
-                            Type contentType = ReflectionUtil.getTypeParameter(field.getGenericType(), 0);
-                            if (contentType != null) {
-                                List<Object> result = Lists.newArrayList();
-                                JsonArray list = jsonObject.getAsJsonArray(serialisedFieldName);
-                                for (JsonElement item : list) {
-                                    result.add(context.deserialize(item, contentType));
-                                }
-
-                                if (setter != null) {
-                                    setter.invoke(element, result);
-                                } else {
-                                    field.set(element, result);
-                                }
-                            }
-                        } else {
-                            if (setter != null) {
-                                Object value = context.deserialize(jsonObject.get(serialisedFieldName), fieldType);
-                                setter.invoke(element, value);
-                            } else {
-                                field.set(element, context.deserialize(jsonObject.get(serialisedFieldName), field.getType()));
-                            }
+                try {
+                    if (field.isList()) {
+                        List<Object> result = Lists.newArrayList();
+                        for (JsonElement item : value.getAsJsonArray()) {
+                            result.add(context.deserialize(item, field.getValueType()));
                         }
-                    } catch (RuntimeException | IllegalAccessException | InvocationTargetException e) {
-                        logger.error("Failed to deserialize field " + field.getName() + " of " + type, e);
+                        field.set(element, result);
+                    } else {
+                        field.set(element, context.deserialize(value, field.getValueType()));
                     }
+                } catch (ProcessCanceledException e) {
+                    throw e;
+                } catch (Throwable t) {
+                    logger.error("Failed to deserialize field " + field.getFieldName() + " of " + type, t);
                 }
             }
 
-            for (String key : unknownFields) {
-                logger.warn("Field '" + key + "' not recognized for " + typeOfT + " in " + json);
-            }
-
             // Deserialize contents and layout hints
-            if (UILayout.class.isAssignableFrom(widgetClass)) {
+            List<LayoutNode> childNodes = new ArrayList<>();
+            if (plan.isLayout()) {
                 UILayout<LayoutHint> layout = (UILayout<LayoutHint>) element;
 
-                Class<? extends LayoutHint> layoutHintType = (Class<? extends LayoutHint>)
-                        ReflectionUtil.getTypeParameter(widgetClass.getGenericSuperclass(), 0);
+                Class<? extends LayoutHint> layoutHintType = plan.getLayoutHintType();
                 if (jsonObject.has(CONTENTS_FIELD)) {
                     for (JsonElement child : jsonObject.getAsJsonArray(CONTENTS_FIELD)) {
                         UIWidget childElement = context.deserialize(child, UIWidget.class);
+                        childNodes.add(childElement != null ? loadContext.builtNodes.get(child) : null);
                         if (childElement != null) {
                             LayoutHint hint = null;
                             if (child.isJsonObject()) {
                                 JsonObject childObject = child.getAsJsonObject();
-                                if (layoutHintType != null && !layoutHintType.isInterface() && !Modifier.isAbstract(layoutHintType.getModifiers())
-                                        && childObject.has(LAYOUT_INFO_FIELD)) {
+                                if (layoutHintType != null && childObject.has(LAYOUT_INFO_FIELD)) {
                                     hint = context.deserialize(childObject.get(LAYOUT_INFO_FIELD), layoutHintType);
                                 }
                             }
@@ -296,33 +432,8 @@ public class UIElementLoader {
                     }
                 }
             }
+            loadContext.builtNodes.put(json, new LayoutNode(json, element, childNodes));
             return element;
         }
-
-        private Class<?> determineFieldType(Field field) {
-            try {
-                Method getter = ReflectionUtil.findGetter(field.getName(), field.getDeclaringClass());
-                if (getter != null) {
-                    return getter.getReturnType();
-                } else {
-                    return field.getType();
-                }
-            } catch (NoClassDefFoundError ignore) {
-                return field.getType();
-            }
-        }
-
-        private List<Field> getFields(Class<?> widgetType) {
-            List<Field> fields = new ArrayList<>();
-            for (Class<?> widgetClass = widgetType; widgetClass != null; widgetClass = widgetClass.getSuperclass()) {
-                for (Field field : widgetClass.getDeclaredFields()) {
-                    if (field.isAnnotationPresent(LayoutConfig.class)) {
-                        field.setAccessible(true);
-                        fields.add(field);
-                    }
-                }
-            }
-            return fields;
-        }
     }
 }
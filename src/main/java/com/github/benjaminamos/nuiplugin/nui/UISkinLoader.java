@@ -45,21 +45,41 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
+/**
+ * Loads skins for a module. Loaders are shared by every skin in the module and may be used from several threads at once.
+ */
 public class UISkinLoader {
+    /**
+     * The state of a single skin load.
+     */
+    public static final class LoadContext {
+        private boolean usesModuleWidgets;
+
+        /**
+         * @return true if the skin styles (or tried to style) widgets that are not part of NUI itself
+         */
+        public boolean usesModuleWidgets() {
+            return usesModuleWidgets;
+        }
+    }
+
     private static final Logger logger = Logger.getInstance(UISkinLoader.class);
-    private Gson gson;
-    private GestaltModuleService gestaltModuleService;
-    private String moduleContext;
+    private final Gson gson;
+    private final GestaltModuleService gestaltModuleService;
+    private final String moduleContext;
+    private final ThreadLocal<LoadContext> currentLoadContext = new ThreadLocal<>();
 
     public UISkinLoader(GestaltModuleService gestaltModuleService, String moduleContext) {
         gson = new GsonBuilder()
                 .registerTypeAdapter(UISkin.class, new UISkinTypeAdapter())
                 .registerTypeAdapterFactory(new CaseInsensitiveEnumTypeAdapterFactory())
-                .registerTypeAdapter(UITextureRegion.class, new TextureRegionTypeAdapter(gestaltModuleService))
-                .registerTypeAdapter(Optional.class, new OptionalTextureRegionTypeAdapter(gestaltModuleService))
+                .registerTypeAdapter(UITextureRegion.class, new TextureRegionTypeAdapter(gestaltModuleService, false))
+                .registerTypeAdapter(Optional.class, new OptionalTextureRegionTypeAdapter(gestaltModuleService, false))
                 .registerTypeAdapter(Font.class, new FontTypeAdapter(gestaltModuleService))
                 .registerTypeAdapter(Color.class, new ColorTypeHandler())
                 .enableComplexMapKeySerialization()
@@ -69,22 +89,32 @@ public class UISkinLoader {
         this.moduleContext = moduleContext;
     }
 
-    public UISkin load(String path) throws IOException {
+    public UISkin load(String path, LoadContext context) throws IOException {
         try (JsonReader reader = new JsonReader(new FileReader(path, Charsets.UTF_8))) {
             reader.setLenient(true);
-            return gson.fromJson(reader, UISkin.class);
+            return load(context, () -> gson.fromJson(reader, UISkin.class));
         } catch (JsonSyntaxException e) {
             e.printStackTrace();
             throw new IOException("Failed to load skin '" + path + "'", e);
         }
     }
 
-    public UISkin load(JsonElement element) throws IOException {
-        return gson.fromJson(element, UISkin.class);
+    public UISkin load(JsonElement element, LoadContext context) throws IOException {
+        return load(context, () -> gson.fromJson(element, UISkin.class));
     }
 
-    public UISkin load(InputStream stream) throws IOException {
-        return gson.fromJson(new InputStreamReader(stream), UISkin.class);
+    public UISkin load(InputStream stream, LoadContext context) throws IOException {
+        return load(context, () -> gson.fromJson(new InputStreamReader(stream), UISkin.class));
+    }
+
+    private UISkin load(LoadContext context, Supplier<UISkin> loader) {
+        LoadContext previousContext = currentLoadContext.get();
+        currentLoadContext.set(context);
+        try {
+            return loader.get();
+        } finally {
+            currentLoadContext.set(previousContext);
+        }
     }
 
     private class UISkinTypeAdapter implements JsonDeserializer<UISkin> {
@@ -94,7 +124,7 @@ public class UISkinLoader {
                 UISkinBuilder builder = new UISkinBuilder();
                 DefaultInfo defaultInfo = null;
                 defaultInfo = context.deserialize(json, DefaultInfo.class);
-                defaultInfo.setGestaltModuleData(moduleContext, gestaltModuleService);
+                defaultInfo.setGestaltModuleData(currentLoadContext.get(), moduleContext, gestaltModuleService);
                 defaultInfo.apply(builder);
                 return builder.build();
             }
@@ -119,7 +149,7 @@ public class UISkinLoader {
                 for (Map.Entry<String, FamilyInfo> entry : families.entrySet()) {
                     builder.setFamily(entry.getKey());
                     FamilyInfo familyInfo = entry.getValue();
-                    familyInfo.setGestaltModuleData(moduleContext, gestaltModuleService);
+                    familyInfo.setGestaltModuleData(loadContext, moduleContext, gestaltModuleService);
                     familyInfo.apply(builder);
                 }
             }
@@ -128,10 +158,12 @@ public class UISkinLoader {
 
     private static class FamilyInfo extends StyleInfo {
         public Map<String, ElementInfo> elements;
+        protected LoadContext loadContext;
         protected String moduleContext;
         protected GestaltModuleService gestaltModuleService;
 
-        public void setGestaltModuleData(String moduleContext, GestaltModuleService gestaltModuleService) {
+        public void setGestaltModuleData(LoadContext loadContext, String moduleContext, GestaltModuleService gestaltModuleService) {
+            this.loadContext = loadContext;
             this.moduleContext = moduleContext;
             this.gestaltModuleService = gestaltModuleService;
         }
@@ -139,9 +171,13 @@ public class UISkinLoader {
         public void apply(UISkinBuilder builder) {
             super.apply(builder);
             if (elements != null) {
+                WidgetLibrary library = gestaltModuleService.getWidgetLibrary();
+                List<String> moduleLookupOrder = gestaltModuleService.getModuleLookupOrder(moduleContext);
                 for (Map.Entry<String, ElementInfo> entry : elements.entrySet()) {
-                    WidgetLibrary library = gestaltModuleService.getWidgetLibrary();
-                    Class<? extends UIWidget> widgetClass = library.getWidgetClassByName(moduleContext, entry.getKey());
+                    Class<? extends UIWidget> widgetClass = library.getWidgetClassByName(moduleLookupOrder, entry.getKey());
+                    if (widgetClass == null || widgetClass.getClassLoader() != UIWidget.class.getClassLoader()) {
+                        loadContext.usesModuleWidgets = true;
+                    }
                     if (widgetClass != null) {
                         builder.setElementClass(widgetClass);
                         entry.getValue().apply(builder);
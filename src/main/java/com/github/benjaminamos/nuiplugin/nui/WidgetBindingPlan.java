@@ -0,0 +1,279 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import com.google.gson.annotations.SerializedName;
+import org.jetbrains.annotations.Nullable;
+import org.terasology.nui.LayoutConfig;
+import org.terasology.nui.LayoutHint;
+import org.terasology.nui.UILayout;
+import org.terasology.nui.UIWidget;
+import org.terasology.reflection.ReflectionUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Describes how to create a widget class and bind its layout fields, so that the reflection is only done once per class
+ * rather than once per widget in a layout.
+ * <p>
+ * Plans are kept in a {@link ClassValue}, so they are stored with the widget class itself and are collected along
+ * with it once its class loader is retired.
+ */
+final class WidgetBindingPlan {
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final ClassValue<WidgetBindingPlan> PLANS = new ClassValue<>() {
+        @Override
+        protected WidgetBindingPlan computeValue(Class<?> type) {
+            return new WidgetBindingPlan(type.asSubclass(UIWidget.class));
+        }
+    };
+
+    /**
+     * A layout field that can be set from JSON.
+     */
+    static final class FieldBinding {
+        private final String fieldName;
+        private final String serialisedName;
+        /**
+         * The type to deserialize the value as, or the element type for lists. Null if the value cannot be set.
+         */
+        private final @Nullable Type valueType;
+        private final boolean list;
+        /**
+         * Either the setter for the field, or the field itself. Null if the value cannot be set.
+         */
+        private final @Nullable MethodHandle setter;
+
+        private FieldBinding(String fieldName, String serialisedName, @Nullable Type valueType, boolean list, @Nullable MethodHandle setter) {
+            this.fieldName = fieldName;
+            this.serialisedName = serialisedName;
+            this.valueType = valueType;
+            this.list = list;
+            this.setter = setter;
+        }
+
+        String getFieldName() {
+            return fieldName;
+        }
+
+        String getSerialisedName() {
+            return serialisedName;
+        }
+
+        @Nullable Type getValueType() {
+            return valueType;
+        }
+
+        boolean isList() {
+            return list;
+        }
+
+        void set(UIWidget widget, Object value) throws Throwable {
+            if (setter != null) {
+                setter.invokeExact((Object) widget, value);
+            }
+        }
+    }
+
+    private final @Nullable MethodHandle constructor;
+    private final Object[] constructorArguments;
+    private final @Nullable Exception constructorFailure;
+    private final @Nullable MethodHandle idSetter;
+    private final List<FieldBinding> fieldBindings = new ArrayList<>();
+    private final Set<String> serialisedNames = new HashSet<>();
+    private final boolean layout;
+    private final @Nullable Class<? extends LayoutHint> layoutHintType;
+
+    private WidgetBindingPlan(Class<? extends UIWidget> widgetClass) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        MethodHandle constructorHandle = null;
+        Object[] arguments = new Object[0];
+        Exception failure = null;
+        try {
+            Constructor<?> widgetConstructor;
+            try {
+                widgetConstructor = widgetClass.getDeclaredConstructor();
+            } catch (NoSuchMethodException ignore) {
+                widgetConstructor = widgetClass.getConstructors()[0];
+            }
+            widgetConstructor.setAccessible(true);
+
+            arguments = new Object[widgetConstructor.getParameterCount()];
+            Class<?>[] parameterTypes = widgetConstructor.getParameterTypes();
+            for (int paramNo = 0; paramNo < parameterTypes.length; paramNo++) {
+                // https://stackoverflow.com/a/38243203
+                arguments[paramNo] = Array.get(Array.newInstance(parameterTypes[paramNo], 1), 0);
+            }
+            constructorHandle = lookup.unreflectConstructor(widgetConstructor)
+                    .asSpreader(Object[].class, arguments.length)
+                    .asType(CONSTRUCTOR_TYPE);
+        } catch (Exception e) {
+            failure = e;
+        }
+        constructor = constructorHandle;
+        constructorArguments = arguments;
+        constructorFailure = failure;
+
+        MethodHandle idFieldSetter = null;
+        for (Class<?> parentClass = widgetClass; parentClass != null && idFieldSetter == null; parentClass = parentClass.getSuperclass()) {
+            try {
+                Field idField = parentClass.getDeclaredField(UIElementLoader.ID_FIELD);
+                idField.setAccessible(true);
+                idFieldSetter = lookup.unreflectSetter(idField).asType(SETTER_TYPE);
+            } catch (Throwable ignore) {
+            }
+        }
+        idSetter = idFieldSetter;
+
+        layout = UILayout.class.isAssignableFrom(widgetClass);
+        for (Field field : getFields(widgetClass)) {
+            Class<?> fieldType = determineFieldType(field);
+
+            SerializedName name = field.getAnnotation(SerializedName.class);
+            String serialisedName = name != null ? name.value() : field.getName();
+
+            Method setter;
+            try {
+                setter = ReflectionUtil.findSetter(field.getName(), widgetClass, fieldType);
+            } catch (NoClassDefFoundError ignore) {
+                continue;
+            }
+
+            serialisedNames.add(serialisedName);
+            if (layout && field.getName().equals(UIElementLoader.CONTENTS_FIELD)) {
+                // Layout contents are deserialized separately, along with their layout hints.
+                continue;
+            }
+
+            boolean list = List.class.isAssignableFrom(field.getType());
+            Type valueType;
+            if (list) {
+                valueType = ReflectionUtil.getTypeParameter(field.getGenericType(), 0);
+            } else {
+                valueType = setter != null ? fieldType : field.getType();
+            }
+
+            MethodHandle setterHandle = null;
+            try {
+                if (setter != null) {
+                    setter.setAccessible(true);
+                    setterHandle = lookup.unreflect(setter).asType(SETTER_TYPE);
+                } else {
+                    setterHandle = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                }
+            } catch (IllegalAccessException | RuntimeException ignore) {
+                // Final fields without setters cannot be set.
+            }
+            fieldBindings.add(new FieldBinding(field.getName(), serialisedName, valueType, list, setterHandle));
+        }
+
+        Class<? extends LayoutHint> hintType = null;
+        if (layout) {
+            Type hintTypeParameter = ReflectionUtil.getTypeParameter(widgetClass.getGenericSuperclass(), 0);
+            if (hintTypeParameter instanceof Class && LayoutHint.class.isAssignableFrom((Class<?>) hintTypeParameter)
+                    && !((Class<?>) hintTypeParameter).isInterface() && !Modifier.isAbstract(((Class<?>) hintTypeParameter).getModifiers())) {
+                hintType = ((Class<?>) hintTypeParameter).asSubclass(LayoutHint.class);
+            }
+        }
+        layoutHintType = hintType;
+    }
+
+    static WidgetBindingPlan forClass(Class<? extends UIWidget> widgetClass) {
+        return PLANS.get(widgetClass);
+    }
+
+    UIWidget createWidget() throws Throwable {
+        if (constructor == null) {
+            throw constructorFailure;
+        }
+        Object widget = constructor.invokeExact(constructorArguments);
+        return (UIWidget) widget;
+    }
+
+    /**
+     * @return false if the widget has no id field
+     */
+    boolean setId(UIWidget widget, String id) throws Throwable {
+        if (idSetter == null) {
+            return false;
+        }
+        idSetter.invokeExact((Object) widget, (Object) id);
+        return true;
+    }
+
+    List<FieldBinding> getFieldBindings() {
+        return fieldBindings;
+    }
+
+    /**
+     * @return true if the JSON field name sets a layout field, including layout contents
+     */
+    boolean hasField(String serialisedName) {
+        return serialisedNames.contains(serialisedName);
+    }
+
+    boolean isLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the type of layout hint for child widgets, or null if there are none or they cannot be instantiated
+     */
+    @Nullable Class<? extends LayoutHint> getLayoutHintType() {
+        return layoutHintType;
+    }
+
+    private static Class<?> determineFieldType(Field field) {
+        try {
+            Method getter = ReflectionUtil.findGetter(field.getName(), field.getDeclaringClass());
+            if (getter != null) {
+                return getter.getReturnType();
+            } else {
+                return field.getType();
+            }
+        } catch (NoClassDefFoundError ignore) {
+            return field.getType();
+        }
+    }
+
+    private static List<Field> getFields(Class<?> widgetType) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> widgetClass = widgetType; widgetClass != null; widgetClass = widgetClass.getSuperclass()) {
+            for (Field field : widgetClass.getDeclaredFields()) {
+                if (field.isAnnotationPresent(LayoutConfig.class)) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+}
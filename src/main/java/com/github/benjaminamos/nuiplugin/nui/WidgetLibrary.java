@@ -16,38 +16,349 @@
 
 package com.github.benjaminamos.nuiplugin.nui;
 
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.terasology.nui.UIWidget;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
 
+/**
+ * Finds widget classes by name. Built-in widgets are found by their simple name, whilst module widgets are namespaced
+ * by their module id (as "module:Widget") and resolved on-demand.
+ * <p>
+ * Lookups are case-insensitive, do not lock and do not allocate once a name has been resolved, since they happen for
+ * every widget in a layout and every element in a skin. Writes are rare, so they replace the affected tables.
+ */
 public class WidgetLibrary {
-    private Map<String, Class<? extends UIWidget>> widgetsByName = new HashMap<>();
+    /**
+     * Finds widget classes that have not been added to the library, such as those declared by project modules.
+     */
+    @FunctionalInterface
+    public interface WidgetResolver {
+        /**
+         * Finds the widget class with the given simple name declared by a module.
+         * An exception should be thrown if the widget cannot be resolved right now, so that the result is not memoised.
+         * @param moduleId the id of the module declaring the widget
+         * @param simpleName the simple name of the widget class
+         * @return the widget class, or null if the module does not declare it
+         */
+        @Nullable Class<? extends UIWidget> resolve(String moduleId, String simpleName);
+    }
+
+    /**
+     * The widget classes bundled with NUI. These are listed at build-time, since scanning for them is slow.
+     * They are only loaded once, however many projects are open.
+     */
+    private static final class BuiltInWidgets {
+        private static final String INDEX_RESOURCE = "builtin-widgets.txt";
+        private static final List<Class<? extends UIWidget>> WIDGET_CLASSES = load();
+
+        private static List<Class<? extends UIWidget>> load() {
+            List<Class<? extends UIWidget>> widgetClasses = new ArrayList<>();
+            try (InputStream indexStream = WidgetLibrary.class.getResourceAsStream(INDEX_RESOURCE)) {
+                if (indexStream == null) {
+                    logger.error("The built-in widget index is missing. Was it generated by the build?");
+                    return Collections.emptyList();
+                }
+
+                BufferedReader reader = new BufferedReader(new InputStreamReader(indexStream, StandardCharsets.UTF_8));
+                String className;
+                while ((className = reader.readLine()) != null) {
+                    if (className.isBlank()) {
+                        continue;
+                    }
+
+                    try {
+                        widgetClasses.add(Class.forName(className.trim(), false, UIWidget.class.getClassLoader())
+                                .asSubclass(UIWidget.class));
+                    } catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+                        logger.warn("Unable to load built-in widget " + className, e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Unable to read the built-in widget index", e);
+            }
+            return Collections.unmodifiableList(widgetClasses);
+        }
+    }
+
+    /**
+     * An immutable hash table of widgets, keyed case-insensitively by name. Keys are looked up by a region of a string,
+     * so that qualified names never need to be split.
+     */
+    private static final class WidgetTable {
+        private static final WidgetTable EMPTY = new WidgetTable(Collections.emptyMap());
+
+        private final String[] names;
+        private final Object[] widgets;
+
+        /**
+         * @param entries the widgets by name, which must not contain names that only differ by case
+         */
+        private WidgetTable(Map<String, Object> entries) {
+            // The table is at most half-full, so probing always reaches an empty slot.
+            int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 2) * 2;
+            names = new String[capacity];
+            widgets = new Object[capacity];
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                int slot = hash(entry.getKey(), 0, entry.getKey().length()) & (capacity - 1);
+                while (names[slot] != null) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                names[slot] = entry.getKey();
+                widgets[slot] = entry.getValue();
+            }
+        }
+
+        private @Nullable Object get(String key, int start, int end) {
+            int mask = names.length - 1;
+            for (int slot = hash(key, start, end) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+                String name = names[slot];
+                if (name.length() == end - start && name.regionMatches(true, 0, key, start, end - start)) {
+                    return widgets[slot];
+                }
+            }
+            return null;
+        }
+
+        private WidgetTable with(Map<String, Object> additions) {
+            Map<String, Object> entries = toMap();
+            entries.putAll(additions);
+            return new WidgetTable(entries);
+        }
+
+        private WidgetTable without(Predicate<Object> filter) {
+            Map<String, Object> entries = toMap();
+            entries.values().removeIf(filter);
+            return new WidgetTable(entries);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> entries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int slot = 0; slot < names.length; slot++) {
+                if (names[slot] != null) {
+                    entries.put(names[slot], widgets[slot]);
+                }
+            }
+            return entries;
+        }
+
+        /**
+         * Hashes characters the same way that {@link String#regionMatches(boolean, int, String, int, int)} compares them.
+         */
+        private static int hash(String key, int start, int end) {
+            int hash = 0;
+            for (int index = start; index < end; index++) {
+                hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(key.charAt(index)));
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static final class Namespace {
+        private final String moduleId;
+        private volatile WidgetTable addedWidgets = WidgetTable.EMPTY;
+        /**
+         * Widgets found by the {@link WidgetResolver}, along with {@link #MISSING} for those that could not be found.
+         */
+        private volatile WidgetTable resolvedWidgets = WidgetTable.EMPTY;
+
+        private Namespace(String moduleId) {
+            this.moduleId = moduleId;
+        }
+    }
+
+    private static final Logger logger = Logger.getInstance(WidgetLibrary.class);
+    private static final Object MISSING = new Object();
+    private final Object writeLock = new Object();
+    /**
+     * The widgets that are not namespaced by a module, such as those bundled with NUI.
+     */
+    private volatile WidgetTable globalWidgets = WidgetTable.EMPTY;
+    /**
+     * There are only a few modules, so these are searched linearly.
+     */
+    private volatile Namespace[] namespaces = new Namespace[0];
+    /**
+     * Incremented whenever resolved widgets are cleared, so that resolutions started before then are discarded.
+     */
+    private volatile int resolutionGeneration;
+    private volatile @Nullable WidgetResolver widgetResolver;
+
+    /**
+     * Finds a widget by its simple name, or by its qualified name (as "module:Widget").
+     */
+    public @Nullable Class<? extends UIWidget> getWidgetClassByName(String name) {
+        int separator = name.indexOf(':');
+        if (separator < 0) {
+            return asWidgetClass(globalWidgets.get(name, 0, name.length()));
+        }
+        return getModuleWidgetClass(name, 0, separator, name, separator + 1, name.length());
+    }
 
-    public Class<? extends UIWidget> getWidgetClassByName(String context, String name) {
-        Class<? extends UIWidget> widgetClass = widgetsByName.get(name.toLowerCase());
-        if (widgetClass != null) {
+    /**
+     * Finds a widget by its qualified name or simple name. Simple names that are not built-in are searched for in the
+     * context module.
+     */
+    public @Nullable Class<? extends UIWidget> getWidgetClassByName(@Nullable String context, String name) {
+        Class<? extends UIWidget> widgetClass = getWidgetClassByName(name);
+        if (widgetClass != null || context == null || name.indexOf(':') >= 0) {
             return widgetClass;
         }
-        return widgetsByName.get(context + ":" + name.toLowerCase());
+        return getModuleWidgetClass(context, 0, context.length(), name, 0, name.length());
     }
 
-    public Class<? extends UIWidget> getWidgetClassByName(String name) {
-        return widgetsByName.get(name.toLowerCase());
+    /**
+     * Finds a widget by its qualified name or simple name. Simple names that are not built-in are searched for in each
+     * of the modules in turn, such as a module followed by its dependencies.
+     */
+    public @Nullable Class<? extends UIWidget> getWidgetClassByName(List<String> moduleIds, String name) {
+        Class<? extends UIWidget> widgetClass = getWidgetClassByName(name);
+        if (widgetClass != null || name.indexOf(':') >= 0) {
+            return widgetClass;
+        }
+
+        for (int moduleNo = 0; moduleNo < moduleIds.size(); moduleNo++) {
+            String moduleId = moduleIds.get(moduleNo);
+            widgetClass = getModuleWidgetClass(moduleId, 0, moduleId.length(), name, 0, name.length());
+            if (widgetClass != null) {
+                return widgetClass;
+            }
+        }
+        return null;
+    }
+
+    private @Nullable Class<? extends UIWidget> getModuleWidgetClass(String moduleKey, int moduleStart, int moduleEnd,
+                                                                     String nameKey, int nameStart, int nameEnd) {
+        Namespace namespace = findNamespace(moduleKey, moduleStart, moduleEnd);
+        if (namespace != null) {
+            Object widget = namespace.addedWidgets.get(nameKey, nameStart, nameEnd);
+            if (widget == null) {
+                widget = namespace.resolvedWidgets.get(nameKey, nameStart, nameEnd);
+            }
+            if (widget != null) {
+                return asWidgetClass(widget);
+            }
+        }
+
+        WidgetResolver resolver = widgetResolver;
+        if (resolver == null) {
+            return null;
+        }
+
+        int generation = resolutionGeneration;
+        String moduleId = moduleKey.substring(moduleStart, moduleEnd);
+        String simpleName = nameKey.substring(nameStart, nameEnd);
+        Class<? extends UIWidget> widgetClass = resolver.resolve(moduleId, simpleName);
+        synchronized (writeLock) {
+            if (generation == resolutionGeneration) {
+                Namespace resolvedNamespace = getOrCreateNamespace(moduleId);
+                resolvedNamespace.resolvedWidgets = resolvedNamespace.resolvedWidgets.with(
+                        Map.of(simpleName, widgetClass != null ? widgetClass : MISSING));
+            }
+        }
+        return widgetClass;
+    }
+
+    private @Nullable Namespace findNamespace(String key, int start, int end) {
+        for (Namespace namespace : namespaces) {
+            if (namespace.moduleId.length() == end - start && namespace.moduleId.regionMatches(true, 0, key, start, end - start)) {
+                return namespace;
+            }
+        }
+        return null;
+    }
+
+    private Namespace getOrCreateNamespace(String moduleId) {
+        Namespace namespace = findNamespace(moduleId, 0, moduleId.length());
+        if (namespace == null) {
+            namespace = new Namespace(moduleId);
+            Namespace[] newNamespaces = Arrays.copyOf(namespaces, namespaces.length + 1);
+            newNamespaces[namespaces.length] = namespace;
+            namespaces = newNamespaces;
+        }
+        return namespace;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static @Nullable Class<? extends UIWidget> asWidgetClass(@Nullable Object widget) {
+        return widget != MISSING ? (Class<? extends UIWidget>) widget : null;
+    }
+
+    /**
+     * Sets how module widgets are found when they are first used.
+     */
+    public void setWidgetResolver(@Nullable WidgetResolver widgetResolver) {
+        this.widgetResolver = widgetResolver;
+        clearResolvedWidgets();
+    }
+
+    /**
+     * Forgets the widgets found so far, such as when the classes they were loaded from are retired.
+     */
+    public void clearResolvedWidgets() {
+        clearResolvedWidgets(widgetClass -> true);
+    }
+
+    /**
+     * Forgets the widgets found so far that match a filter, along with any widgets that could not be found.
+     * Use this when only some of the classes that widgets were loaded from are retired.
+     */
+    public void clearResolvedWidgets(Predicate<Class<? extends UIWidget>> filter) {
+        synchronized (writeLock) {
+            resolutionGeneration++;
+            for (Namespace namespace : namespaces) {
+                namespace.resolvedWidgets = namespace.resolvedWidgets.without(widget -> widget == MISSING || filter.test(asWidgetClass(widget)));
+            }
+        }
     }
 
     public void addWidgetClass(Class<? extends UIWidget> widgetClass) {
         addWidgetClass(widgetClass.getSimpleName(), widgetClass);
     }
 
+    /**
+     * Adds a widget under an alias, which is namespaced by a module if it is qualified (as "module:Widget").
+     */
     public void addWidgetClass(String alias, Class<? extends UIWidget> widgetClass) {
-        widgetsByName.put(alias.toLowerCase(), widgetClass);
+        synchronized (writeLock) {
+            int separator = alias.indexOf(':');
+            if (separator < 0) {
+                globalWidgets = globalWidgets.with(Map.of(alias, widgetClass));
+            } else {
+                Namespace namespace = getOrCreateNamespace(alias.substring(0, separator));
+                namespace.addedWidgets = namespace.addedWidgets.with(Map.of(alias.substring(separator + 1), widgetClass));
+            }
+        }
+    }
+
+    /**
+     * Adds the widget classes bundled with NUI.
+     */
+    public void addBuiltInWidgetClasses() {
+        addWidgetClasses(BuiltInWidgets.WIDGET_CLASSES);
     }
 
     public void addWidgetClasses(Collection<Class<? extends UIWidget>> classes) {
+        Map<String, Object> additions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         for (Class<? extends UIWidget> widgetClass : classes) {
-            addWidgetClass(widgetClass);
+            additions.put(widgetClass.getSimpleName(), widgetClass);
+        }
+
+        synchronized (writeLock) {
+            globalWidgets = globalWidgets.with(additions);
         }
     }
 }
@@ -25,14 +25,25 @@ import com.google.common.base.Charsets;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import javax.imageio.ImageIO;
+import java.awt.Image;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class FontLoader {
+    /**
+     * Reads the page textures of a font.
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+        Image load(VirtualFile pageFile) throws IOException;
+    }
+
     private static final String INTEGER_PATTERN = "((?:[\\+-]?\\d+)(?:[eE][\\+-]?\\d+)?)";
 
     // Common patterns
@@ -53,10 +64,21 @@ public class FontLoader {
             "xadvance=" + INTEGER_PATTERN + "\\s+" +
             "page=" + INTEGER_PATTERN + "\\s+" +
             "chnl=" + INTEGER_PATTERN + "\\s*");
+    private final PageLoader pageLoader;
     private VirtualFile basePath;
+    private List<VirtualFile> pageFiles = new ArrayList<>();
+
+    public FontLoader() {
+        this(FontLoader::readPage);
+    }
+
+    public FontLoader(PageLoader pageLoader) {
+        this.pageLoader = pageLoader;
+    }
 
     public FontData load(VirtualFile basePath, InputStream inputStream) throws IOException {
         this.basePath = basePath;
+        pageFiles.clear();
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8))) {
             FontDataBuilder builder = new FontDataBuilder();
@@ -76,6 +98,13 @@ public class FontLoader {
         }
     }
 
+    /**
+     * @return the page textures read by the last call to {@link #load(VirtualFile, InputStream)}
+     */
+    public List<VirtualFile> getPageFiles() {
+        return pageFiles;
+    }
+
     private void parseCharacter(FontDataBuilder builder, String charInfo) throws IOException {
         Matcher matcher = charPattern.matcher(charInfo);
         if (matcher.matches()) {
@@ -112,12 +141,23 @@ public class FontLoader {
         if (pageMatcher.matches()) {
             int pageId = Integer.parseInt(pageMatcher.group(1));
             String textureName = pageMatcher.group(2);
-            builder.addPage(pageId, ImageIO.read(basePath.findChild(textureName).getInputStream()));
+            VirtualFile pageFile = basePath.findChild(textureName);
+            if (pageFile == null) {
+                throw new IOException("Failed to load font - missing page texture '" + textureName + "'");
+            }
+            pageFiles.add(pageFile);
+            builder.addPage(pageId, pageLoader.load(pageFile));
         } else {
             throw new IOException("Failed to load font - invalid page line '" + pageInfo + "'");
         }
     }
 
+    private static Image readPage(VirtualFile pageFile) throws IOException {
+        try (InputStream pageStream = pageFile.getInputStream()) {
+            return ImageIO.read(pageStream);
+        }
+    }
+
 
     private void parseHeader(String info) throws IOException {
         if (!info.startsWith("info ")) {
@@ -40,6 +40,6 @@ public final class FontTypeAdapter implements JsonDeserializer<Font> {
             name = "engine:" + name;
         }
 
-        return gestaltModuleService.getFontByUrn(name);
+        return gestaltModuleService.getFontByUrnAsync("engine", name);
     }
 }
@@ -28,9 +28,14 @@ import java.util.Optional;
 
 public final class OptionalTextureRegionTypeAdapter implements JsonDeserializer<Optional<?>> {
     private GestaltModuleService gestaltModuleService;
+    private final boolean prefetchPixels;
 
-    public OptionalTextureRegionTypeAdapter(GestaltModuleService gestaltModuleService) {
+    /**
+     * @param prefetchPixels whether to start decoding textures as soon as they are loaded, rather than when first drawn
+     */
+    public OptionalTextureRegionTypeAdapter(GestaltModuleService gestaltModuleService, boolean prefetchPixels) {
         this.gestaltModuleService = gestaltModuleService;
+        this.prefetchPixels = prefetchPixels;
     }
 
     @Override
@@ -43,6 +48,6 @@ public final class OptionalTextureRegionTypeAdapter implements JsonDeserializer<
         if (!name.contains(":")) {
             name = "engine:" + name;
         }
-        return Optional.ofNullable(gestaltModuleService.getImageByUrn(name));
+        return Optional.ofNullable(gestaltModuleService.getImageByUrnAsync("engine", name, prefetchPixels));
     }
 }
@@ -28,14 +28,19 @@ import java.lang.reflect.Type;
 
 public final class TextureRegionTypeAdapter implements JsonDeserializer<UITextureRegion> {
     private final GestaltModuleService gestaltModuleService;
+    private final boolean prefetchPixels;
 
-    public TextureRegionTypeAdapter(GestaltModuleService gestaltModuleService) {
+    /**
+     * @param prefetchPixels whether to start decoding textures as soon as they are loaded, rather than when first drawn
+     */
+    public TextureRegionTypeAdapter(GestaltModuleService gestaltModuleService, boolean prefetchPixels) {
         this.gestaltModuleService = gestaltModuleService;
+        this.prefetchPixels = prefetchPixels;
     }
 
     @Override
     public UITextureRegion deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
         String uri = json.getAsString();
-        return gestaltModuleService.getImageByUrn(uri);
+        return gestaltModuleService.getImageByUrnAsync("engine", uri, prefetchPixels);
     }
 }
@@ -19,6 +19,8 @@ package com.github.benjaminamos.nuiplugin.services;
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompileTask;
 
+import java.util.Arrays;
+
 public class BuildListener implements CompileTask {
     /**
      * Executes the task.
@@ -30,9 +32,9 @@ public class BuildListener implements CompileTask {
      */
     @Override
     public boolean execute(CompileContext context) {
-        GestaltModuleService gestaltModuleService = context.getProject().getService(GestaltModuleService.class);
-        if (gestaltModuleService != null) {
-            gestaltModuleService.invalidateSkins();
+        PreviewReloadCoordinator reloadCoordinator = context.getProject().getService(PreviewReloadCoordinator.class);
+        if (reloadCoordinator != null) {
+            reloadCoordinator.modulesCompiled(Arrays.asList(context.getCompileScope().getAffectedModules()));
         }
         return true;
     }
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.services;
+
+import com.github.benjaminamos.nuiplugin.extensionpoints.beans.GestaltConfiguration;
+import com.github.benjaminamos.nuiplugin.utils.GestaltModuleManifest;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.concurrency.NonUrgentExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Tracks the Gestalt modules in a project and where their root directories are.
+ * <p>
+ * The modules are published as immutable snapshots, so they can be read from any thread without locking.
+ * Module manifests are discovered incrementally from file events and are only re-read when they change.
+ */
+public final class GestaltModuleRegistry implements BulkFileListener {
+    private static final class ModuleInfo {
+        private final String moduleId;
+        private final List<String> dependencyIds;
+        private final VirtualFile root;
+        private final long modificationStamp;
+
+        private ModuleInfo(String moduleId, List<String> dependencyIds, VirtualFile root, long modificationStamp) {
+            this.moduleId = moduleId;
+            this.dependencyIds = dependencyIds;
+            this.root = root;
+            this.modificationStamp = modificationStamp;
+        }
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap());
+
+        private final Map<VirtualFile, ModuleInfo> modulesByManifest;
+        /**
+         * Keyed by lower-case module id, since Gestalt URNs are case-insensitive.
+         */
+        private final Map<String, VirtualFile> rootsById;
+        private final Map<VirtualFile, String> idsByRoot;
+        /**
+         * Also keyed by lower-case module id.
+         */
+        private final Map<String, List<String>> lookupOrdersById;
+
+        private Snapshot(Map<VirtualFile, ModuleInfo> modulesByManifest) {
+            Map<String, ModuleInfo> modulesById = new HashMap<>();
+            Map<String, VirtualFile> rootsById = new HashMap<>();
+            Map<VirtualFile, String> idsByRoot = new HashMap<>();
+            for (ModuleInfo module : modulesByManifest.values()) {
+                modulesById.put(module.moduleId.toLowerCase(Locale.ROOT), module);
+                rootsById.put(module.moduleId.toLowerCase(Locale.ROOT), module.root);
+                idsByRoot.put(module.root, module.moduleId);
+            }
+
+            Map<String, List<String>> lookupOrdersById = new HashMap<>();
+            for (Map.Entry<String, ModuleInfo> module : modulesById.entrySet()) {
+                lookupOrdersById.put(module.getKey(), computeLookupOrder(module.getValue(), modulesById));
+            }
+
+            this.modulesByManifest = Map.copyOf(modulesByManifest);
+            this.rootsById = Map.copyOf(rootsById);
+            this.idsByRoot = Map.copyOf(idsByRoot);
+            this.lookupOrdersById = Map.copyOf(lookupOrdersById);
+        }
+
+        /**
+         * Orders a module before its direct dependencies, and those before their own dependencies (breadth-first).
+         * Dependencies outside of the project, such as the engine, are included but not followed.
+         */
+        private static List<String> computeLookupOrder(ModuleInfo module, Map<String, ModuleInfo> modulesById) {
+            List<String> lookupOrder = new ArrayList<>();
+            Set<String> visitedIds = new HashSet<>();
+            Deque<String> pendingIds = new ArrayDeque<>();
+            pendingIds.add(module.moduleId);
+            while (!pendingIds.isEmpty()) {
+                String moduleId = pendingIds.poll();
+                if (!visitedIds.add(moduleId.toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+
+                lookupOrder.add(moduleId);
+                ModuleInfo dependency = modulesById.get(moduleId.toLowerCase(Locale.ROOT));
+                if (dependency != null) {
+                    pendingIds.addAll(dependency.dependencyIds);
+                }
+            }
+            return List.copyOf(lookupOrder);
+        }
+    }
+
+    private static final ExtensionPointName<GestaltConfiguration> GESTALT_CONFIGURATION_EXTENSION_POINT_NAME =
+            ExtensionPointName.create("com.github.benjaminamos.nuiplugin.gestaltConfiguration");
+    private static final ExecutorService MANIFEST_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "NUI Module Manifest Parsing", Runtime.getRuntime().availableProcessors());
+    private final Project project;
+    private final Disposable parentDisposable;
+    private final Runnable modulesChangedListener;
+    private final Object updateLock = new Object();
+    /**
+     * Manifests that are about to be deleted or moved, which are removed once the VFS change has been applied.
+     */
+    private final Set<VirtualFile> pendingRemovedManifests = ConcurrentHashMap.newKeySet();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * @param modulesChangedListener notified after modules have been added, removed or changed
+     */
+    public GestaltModuleRegistry(Project project, Disposable parentDisposable, Runnable modulesChangedListener) {
+        this.project = project;
+        this.parentDisposable = parentDisposable;
+        this.modulesChangedListener = modulesChangedListener;
+        project.getMessageBus().connect(parentDisposable).subscribe(VirtualFileManager.VFS_CHANGES, this);
+    }
+
+    public VirtualFile getModuleRoot(String moduleId) {
+        return snapshot.rootsById.get(moduleId.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the module followed by its dependencies, in the order that their contents should be searched.
+     */
+    public List<String> getModuleLookupOrder(String moduleId) {
+        List<String> lookupOrder = snapshot.lookupOrdersById.get(moduleId.toLowerCase(Locale.ROOT));
+        return lookupOrder != null ? lookupOrder : List.of(moduleId);
+    }
+
+    public Set<VirtualFile> getModuleRoots() {
+        return snapshot.idsByRoot.keySet();
+    }
+
+    public String getModuleIdForFile(VirtualFile file) {
+        Map<VirtualFile, String> idsByRoot = snapshot.idsByRoot;
+        // Walking up from the file finds the most deeply nested module first.
+        for (VirtualFile directory = file; directory != null; directory = directory.getParent()) {
+            String moduleId = idsByRoot.get(directory);
+            if (moduleId != null) {
+                return moduleId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches the project for module manifests. Only new and changed manifests are read.
+     */
+    public void rescan() {
+        ReadAction.nonBlocking(Executors.callable(() -> {
+            GlobalSearchScope projectSearchScope = GlobalSearchScope.projectScope(project);
+            Predicate<VirtualFile> isModuleManifest = createManifestFilter();
+            Set<VirtualFile> manifests = new HashSet<>();
+            for (String manifestName : GestaltModuleManifest.MANIFEST_NAMES) {
+                FilenameIndex.getVirtualFilesByName(project, manifestName, false, projectSearchScope).stream()
+                        .filter(isModuleManifest)
+                        .forEach(manifests::add);
+            }
+
+            Set<VirtualFile> removedManifests = new HashSet<>(snapshot.modulesByManifest.keySet());
+            removedManifests.removeAll(manifests);
+            applyChanges(manifests, removedManifests);
+        })).inSmartMode(project).expireWith(parentDisposable).submit(NonUrgentExecutor.getInstance());
+    }
+
+    private Predicate<VirtualFile> createManifestFilter() {
+        Set<VirtualFile> outputDirectories = new HashSet<>();
+        for (VirtualFile moduleRoot : ProjectRootManager.getInstance(project).getContentRootsFromAllModules()) {
+            for (GestaltConfiguration configuration : GESTALT_CONFIGURATION_EXTENSION_POINT_NAME.getExtensionList()) {
+                for (String directory : configuration.excludeDirs) {
+                    VirtualFile outputRoot = moduleRoot.findChild(directory);
+                    if (outputRoot != null && outputRoot.exists()) {
+                        outputDirectories.add(outputRoot);
+                    }
+                }
+            }
+        }
+
+        return file -> file.isValid() && outputDirectories.stream().noneMatch(dir -> VfsUtilCore.isAncestor(dir, file, false));
+    }
+
+    /**
+     * Reads the new and changed manifests, then replaces the snapshot. This must be called from within a cancellable
+     * read action, since it waits for the manifests to be parsed.
+     *
+     * @param manifests the manifests that were found or changed
+     * @param removedManifests the manifests that no longer exist. Any that were also found again, such as after a
+     *                         move, are kept
+     */
+    private void applyChanges(Collection<VirtualFile> manifests, Collection<VirtualFile> removedManifests) {
+        Snapshot currentSnapshot = snapshot;
+        Map<VirtualFile, Future<ModuleInfo>> pendingManifests = new HashMap<>();
+        for (VirtualFile manifest : manifests) {
+            ModuleInfo existingModule = currentSnapshot.modulesByManifest.get(manifest);
+            if (existingModule == null || existingModule.modificationStamp != manifest.getModificationStamp()
+                    || !existingModule.root.equals(manifest.getParent())) {
+                pendingManifests.put(manifest, MANIFEST_EXECUTOR.submit(() -> {
+                    long modificationStamp = manifest.getModificationStamp();
+                    GestaltModuleManifest moduleManifest = GestaltModuleManifest.read(manifest);
+                    return new ModuleInfo(moduleManifest.getId(), moduleManifest.getDependencyIds(), manifest.getParent(), modificationStamp);
+                }));
+            }
+        }
+
+        Map<VirtualFile, ModuleInfo> parsedManifests = new HashMap<>();
+        try {
+            for (Map.Entry<VirtualFile, Future<ModuleInfo>> pendingManifest : pendingManifests.entrySet()) {
+                parsedManifests.put(pendingManifest.getKey(), ProgressIndicatorUtils.awaitWithCheckCanceled(pendingManifest.getValue()));
+            }
+        } catch (ProcessCanceledException e) {
+            // The read action will be restarted, which parses the manifests again.
+            pendingManifests.values().forEach(pendingManifest -> pendingManifest.cancel(false));
+            throw e;
+        }
+
+        Set<VirtualFile> remainingRemovedManifests = new HashSet<>(removedManifests);
+        remainingRemovedManifests.removeAll(manifests);
+        synchronized (updateLock) {
+            Map<VirtualFile, ModuleInfo> modulesByManifest = new HashMap<>(snapshot.modulesByManifest);
+            boolean modulesChanged = !parsedManifests.isEmpty();
+            for (VirtualFile removedManifest : remainingRemovedManifests) {
+                modulesChanged |= modulesByManifest.remove(removedManifest) != null;
+            }
+            modulesByManifest.putAll(parsedManifests);
+
+            if (!modulesChanged) {
+                return;
+            }
+            snapshot = new Snapshot(modulesByManifest);
+        }
+
+        modulesChangedListener.run();
+    }
+
+    @Override
+    public void before(@NotNull List<? extends VFileEvent> events) {
+        Map<VirtualFile, ModuleInfo> modulesByManifest = snapshot.modulesByManifest;
+        Set<VirtualFile> removedManifests = new HashSet<>();
+        for (VFileEvent event : events) {
+            if (!(event instanceof VFileDeleteEvent || event instanceof VFileMoveEvent
+                    || (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()))) {
+                continue;
+            }
+
+            VirtualFile file = event.getFile();
+            if (file.isDirectory()) {
+                for (VirtualFile manifest : modulesByManifest.keySet()) {
+                    if (VfsUtilCore.isAncestor(file, manifest, false)) {
+                        removedManifests.add(manifest);
+                    }
+                }
+            } else if (modulesByManifest.containsKey(file)) {
+                removedManifests.add(file);
+            }
+        }
+
+        // The manifests are removed after the change, outside of the write action.
+        pendingRemovedManifests.addAll(removedManifests);
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        Set<VirtualFile> changedManifests = new HashSet<>();
+        for (VFileEvent event : events) {
+            VirtualFile file;
+            if (event instanceof VFileCopyEvent) {
+                file = ((VFileCopyEvent) event).findCreatedFile();
+            } else if (event instanceof VFileContentChangeEvent || event instanceof VFileCreateEvent
+                    || event instanceof VFileMoveEvent
+                    || (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename())) {
+                file = event.getFile();
+            } else {
+                continue;
+            }
+
+            if (file == null || !file.isValid()) {
+                continue;
+            }
+
+            if (file.isDirectory()) {
+                // A module may have been moved or copied into the project.
+                VirtualFile manifest = GestaltModuleManifest.findManifest(file);
+                if (manifest != null) {
+                    changedManifests.add(manifest);
+                }
+            } else if (GestaltModuleManifest.isManifest(file)) {
+                changedManifests.add(file);
+            }
+        }
+
+        Set<VirtualFile> removedManifests = new HashSet<>(pendingRemovedManifests);
+        pendingRemovedManifests.removeAll(removedManifests);
+        if (!changedManifests.isEmpty() || !removedManifests.isEmpty()) {
+            ReadAction.nonBlocking(Executors.callable(() -> {
+                ProjectFileIndex projectFileIndex = ProjectFileIndex.getInstance(project);
+                Predicate<VirtualFile> isModuleManifest = createManifestFilter();
+                Set<VirtualFile> manifests = new HashSet<>();
+                for (VirtualFile manifest : changedManifests) {
+                    if (isModuleManifest.test(manifest) && projectFileIndex.isInContent(manifest)) {
+                        manifests.add(manifest);
+                    }
+                }
+                applyChanges(manifests, removedManifests);
+            })).expireWith(parentDisposable).submit(NonUrgentExecutor.getInstance());
+        }
+    }
+}
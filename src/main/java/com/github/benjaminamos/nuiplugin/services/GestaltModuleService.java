@@ -16,93 +16,243 @@
 
 package com.github.benjaminamos.nuiplugin.services;
 
+import com.github.benjaminamos.nuiplugin.cache.AssetCache;
+import com.github.benjaminamos.nuiplugin.cache.AssetDependencyGraph;
+import com.github.benjaminamos.nuiplugin.classloader.PsiWidgetResolver;
 import com.github.benjaminamos.nuiplugin.extensionpoints.beans.GestaltConfiguration;
+import com.github.benjaminamos.nuiplugin.indexes.GestaltAssetIndex;
+import com.github.benjaminamos.nuiplugin.indexes.GestaltAssetType;
 import com.github.benjaminamos.nuiplugin.nui.AwtBitmapFont;
+import com.github.benjaminamos.nuiplugin.nui.AwtFont;
 import com.github.benjaminamos.nuiplugin.nui.AwtTextureRegion;
+import com.github.benjaminamos.nuiplugin.nui.DeferredFont;
+import com.github.benjaminamos.nuiplugin.nui.DeferredTextureRegion;
+import com.github.benjaminamos.nuiplugin.nui.TextureAtlas;
+import com.github.benjaminamos.nuiplugin.nui.UIElementLoader;
 import com.github.benjaminamos.nuiplugin.nui.UISkinLoader;
 import com.github.benjaminamos.nuiplugin.nui.WidgetLibrary;
+import com.github.benjaminamos.nuiplugin.nui.bitmapfont.FontData;
 import com.github.benjaminamos.nuiplugin.nui.bitmapfont.FontLoader;
 import com.github.benjaminamos.nuiplugin.utils.GestaltUrn;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 import com.intellij.openapi.Disposable;
-import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.psi.search.FilenameIndex;
-import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import com.intellij.psi.search.GlobalSearchScopesCore;
-import com.intellij.util.concurrency.NonUrgentExecutor;
-import org.reflections.Reflections;
-import org.reflections.scanners.Scanners;
-import org.reflections.util.ConfigurationBuilder;
+import com.intellij.util.PathUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.messages.MessageBusConnection;
+import com.intellij.util.messages.Topic;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.terasology.nui.UITextureRegion;
-import org.terasology.nui.UIWidget;
 import org.terasology.nui.asset.font.Font;
 import org.terasology.nui.skin.UISkin;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.function.Function;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
-public final class GestaltModuleService implements DumbService.DumbModeListener, Disposable {
+public final class GestaltModuleService implements DumbService.DumbModeListener, BulkFileListener, Disposable {
+    /**
+     * Notified, on the EDT, once assets requested without blocking have finished loading.
+     */
+    public interface AssetListener {
+        void assetsLoaded();
+    }
+
+    public static final Topic<AssetListener> ASSETS_LOADED = Topic.create("NUI assets loaded", AssetListener.class);
+
     private static class FileCacheEntry<T> {
         public FileCacheEntry(VirtualFile file) {
             this.file = file;
             this.cache = null;
         }
 
+        public static <T> FileCacheEntry<T> failed(VirtualFile file, String failureReason) {
+            FileCacheEntry<T> entry = new FileCacheEntry<>(file);
+            entry.failureReason = failureReason;
+            return entry;
+        }
+
+        /**
+         * The file backing the asset. This is null for assets that could not be resolved to a file.
+         */
         public final VirtualFile file;
+        /**
+         * Files other than {@link #file} that were read whilst loading the asset, such as bitmap font pages.
+         */
+        public final List<VirtualFile> additionalFiles = new ArrayList<>();
         public T cache;
-        public long lastModified;
+        public boolean dependsOnWidgetClasses;
+        /**
+         * Why the asset could not be resolved or loaded, if it failed.
+         */
+        public String failureReason;
+    }
+
+    @FunctionalInterface
+    private interface AssetLoader<T> {
+        T load(FileCacheEntry<T> entry) throws Exception;
+    }
+
+    private static final class AssetKey {
+        private final GestaltAssetType assetType;
+        private final String urn;
+
+        private AssetKey(GestaltAssetType assetType, String urn) {
+            this.assetType = assetType;
+            this.urn = urn;
+        }
+
+        /**
+         * Creates the key for an asset as referenced from the given module. Unqualified URNs refer to different assets
+         * in different modules, so the key always uses the qualified URN.
+         */
+        private static AssetKey create(GestaltAssetType assetType, String moduleContext, String urn) {
+            String qualifiedUrn = urn.contains(":") ? urn : moduleContext + ":" + urn;
+            GestaltUrn gestaltUrn = GestaltUrn.parse(qualifiedUrn);
+            return new AssetKey(assetType, gestaltUrn != null ? gestaltUrn.toString() : qualifiedUrn);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AssetKey)) {
+                return false;
+            }
+            AssetKey other = (AssetKey) o;
+            return assetType == other.assetType && urn.equals(other.urn);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * assetType.hashCode() + urn.hashCode();
+        }
     }
 
     private static final ExtensionPointName<GestaltConfiguration> GESTALT_CONFIGURATION_EXTENSION_POINT_NAME =
             ExtensionPointName.create("com.github.benjaminamos.nuiplugin.gestaltConfiguration");
+    private static final String ASSET_CACHE_SIZE_REGISTRY_KEY = "nuiplugin.asset.cache.size.mb";
+    private static final ExecutorService ASSET_LOADING_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "NUI Asset Loading", Runtime.getRuntime().availableProcessors());
     private final Project project;
     private final WidgetLibrary widgetLibrary;
-    private final Map<String, VirtualFile> moduleRoots = new HashMap<>();
-    private final Map<String, FileCacheEntry<UITextureRegion>> moduleImageCache = new HashMap<>();
-    private final Map<String, FileCacheEntry<Font>> moduleFontCache = new HashMap<>();
-    private final Map<String, FileCacheEntry<UISkin>> moduleSkinCache = new HashMap<>();
-    private final Map<VirtualFile, UISkinLoader> skinLoaders = new HashMap<>();
+    private final UIElementLoader layoutLoader;
+    private final GestaltModuleRegistry moduleRegistry;
+    private final AssetCache<AssetKey, FileCacheEntry<?>> assetCache;
+    /**
+     * Skin loaders by lower-case module id, shared by every skin in the module.
+     */
+    private final Map<String, UISkinLoader> skinLoaders = new ConcurrentHashMap<>();
+    private final Map<VirtualFile, Set<AssetKey>> assetKeysByFile = new ConcurrentHashMap<>();
+    /**
+     * The inverse of {@link #assetKeysByFile}, so that files can stop being tracked once their assets leave the cache.
+     */
+    private final Map<AssetKey, Set<VirtualFile>> trackedFilesByKey = new ConcurrentHashMap<>();
+    /**
+     * The tracked files by lower-case name (without extension), so that files appearing with the same name can find them.
+     */
+    private final Map<String, Set<VirtualFile>> trackedFilesByName = new ConcurrentHashMap<>();
+    /**
+     * The cached assets that could not be found, by lower-case asset name, as they may be found once a file appears.
+     */
+    private final Map<String, Set<AssetKey>> missingAssetsByName = new ConcurrentHashMap<>();
+    private final AssetDependencyGraph<AssetKey> assetDependencies = new AssetDependencyGraph<>();
+    /**
+     * The assets currently being loaded by each thread, innermost last. Used to record asset dependencies.
+     */
+    private final ThreadLocal<Deque<AssetKey>> loadingAssets = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ThreadLocal<Map<String, String>> assetFailureCollector = new ThreadLocal<>();
+    private final Map<AssetKey, CompletableFuture<?>> pendingLoads = new ConcurrentHashMap<>();
+    private final AtomicBoolean assetsLoadedNotificationPending = new AtomicBoolean();
+    private final AtomicLong assetGeneration = new AtomicLong();
 
     public GestaltModuleService(Project project) {
         this.project = project;
         this.widgetLibrary = new WidgetLibrary();
-        // TODO: Reflections is expensive to use! It's really convenient though...
-        Reflections reflections = new Reflections(new ConfigurationBuilder()
-                .addClassLoaders(UIWidget.class.getClassLoader())
-                .forPackage("org.terasology.nui", UIWidget.class.getClassLoader())
-                .setExpandSuperTypes(true)
-                .addScanners(Scanners.SubTypes));
-        widgetLibrary.addWidgetClasses(reflections.getSubTypesOf(UIWidget.class));
+        this.layoutLoader = new UIElementLoader(this);
+        this.assetCache = new AssetCache<>(GestaltModuleService::estimateMemoryUsage,
+                () -> Registry.intValue(ASSET_CACHE_SIZE_REGISTRY_KEY) * 1024L * 1024L, this::assetRemoved, this);
+        // Assets from previously missing modules may resolve once the modules change.
+        this.moduleRegistry = new GestaltModuleRegistry(project, this, () -> {
+            invalidateMatching((key, entry) -> entry.file == null);
+            widgetLibrary.clearResolvedWidgets();
+        });
+        widgetLibrary.addBuiltInWidgetClasses();
+        widgetLibrary.setWidgetResolver(new PsiWidgetResolver(project));
 
         updateModuleRoots();
 
-        project.getMessageBus().connect(this).subscribe(DumbService.DUMB_MODE, this);
+        MessageBusConnection connection = project.getMessageBus().connect(this);
+        connection.subscribe(DumbService.DUMB_MODE, this);
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, this);
     }
 
     public WidgetLibrary getWidgetLibrary() {
         return widgetLibrary;
     }
 
+    /**
+     * @return a number that changes whenever cached assets are invalidated or assets that were still loading arrive
+     */
+    public long getAssetGeneration() {
+        return assetGeneration.get();
+    }
+
+    /**
+     * @return the layout loader shared by every preview in the project
+     */
+    public UIElementLoader getLayoutLoader() {
+        return layoutLoader;
+    }
+
     public Set<VirtualFile> getModuleRoots() {
-        return Set.copyOf(moduleRoots.values());
+        return moduleRegistry.getModuleRoots();
     }
 
     public String getModuleIdForFile(VirtualFile file) {
@@ -110,12 +260,15 @@ public final class GestaltModuleService implements DumbService.DumbModeListener,
             return null;
         }
 
-        for (Map.Entry<String, VirtualFile> module : moduleRoots.entrySet()) {
-            if (file.getPath().startsWith(module.getValue().getPath())) {
-                return module.getKey();
-            }
-        }
-        return null;
+        return moduleRegistry.getModuleIdForFile(file);
+    }
+
+    /**
+     * Returns the module followed by its dependencies, in the order that widgets and assets should be searched for.
+     * An empty list is returned when there is no module context.
+     */
+    public List<String> getModuleLookupOrder(@Nullable String moduleId) {
+        return moduleId != null ? moduleRegistry.getModuleLookupOrder(moduleId) : List.of();
     }
 
     public UITextureRegion getImageByUrn(String urn) {
@@ -123,28 +276,36 @@ public final class GestaltModuleService implements DumbService.DumbModeListener,
     }
 
     public UITextureRegion getImageByUrn(String moduleContext, String urn) {
-        UITextureRegion result = tryGetCache(moduleImageCache, file -> {
-            try {
-                try (InputStream fileStream = file.getInputStream()) {
-                    return new AwtTextureRegion(urn, ImageIO.read(fileStream));
-                }
-            } catch (Exception ignore) {
-                return null;
+        GestaltUrn gestaltUrn = GestaltUrn.parse(urn.contains(":") ? urn : moduleContext + ":" + urn);
+        if (gestaltUrn != null && !gestaltUrn.getFragment().isEmpty()) {
+            return getAtlasSubImage(moduleContext, urn, gestaltUrn);
+        }
+
+        return tryGetCache(createTextureLoader(urn), GestaltAssetType.TEXTURE, moduleContext, urn);
+    }
+
+    private UITextureRegion getAtlasSubImage(String moduleContext, String urn, GestaltUrn gestaltUrn) {
+        String atlasUrn = gestaltUrn.getModule() + ":" + gestaltUrn.getAsset();
+        TextureAtlas atlas = tryGetCache(entry -> {
+            try (InputStream fileStream = entry.file.getInputStream()) {
+                return TextureAtlas.load(fileStream, textureUrn -> {
+                    UITextureRegion texture = getImageByUrn(gestaltUrn.getModule(), textureUrn);
+                    return texture instanceof AwtTextureRegion ? (AwtTextureRegion) texture : null;
+                });
             }
-        }, ".png", moduleContext, urn);
-        if (result != null) {
-            return result;
+        }, GestaltAssetType.ATLAS, moduleContext, atlasUrn);
+        if (atlas == null) {
+            return null;
         }
-        // Alternative Terasology image format. Used for the menu backgrounds, mostly.
-        return tryGetCache(moduleImageCache, file -> {
-            try {
-                try (InputStream fileStream = file.getInputStream()) {
-                    return new AwtTextureRegion(urn, ImageIO.read(fileStream));
-                }
-            } catch (Exception ignore) {
-                return null;
+
+        AwtTextureRegion subImage = atlas.getSubImage(gestaltUrn.getFragment());
+        if (subImage == null) {
+            Map<String, String> failures = assetFailureCollector.get();
+            if (failures != null) {
+                failures.put(urn, "Atlas '" + atlasUrn + "' has no sub-image named '" + gestaltUrn.getFragment() + "'");
             }
-        }, ".jpeg", moduleContext, urn);
+        }
+        return subImage;
     }
 
     public UISkin getSkinByUrn(String urn) {
@@ -159,18 +320,15 @@ public final class GestaltModuleService implements DumbService.DumbModeListener,
             module = moduleContext;
         }
 
-        return tryGetCache(moduleSkinCache, file -> {
-            try {
-                UISkinLoader skinLoader = skinLoaders.get(file);
-                if (skinLoader == null) {
-                    skinLoader = new UISkinLoader(this, module);
-                    skinLoaders.put(file, skinLoader);
-                }
-                return skinLoader.load(file.getInputStream());
-            } catch (Exception ignore) {
-                return null;
+        return tryGetCache(entry -> {
+            UISkinLoader skinLoader = skinLoaders.computeIfAbsent(module.toLowerCase(Locale.ROOT), moduleId -> new UISkinLoader(this, module));
+            UISkinLoader.LoadContext loadContext = new UISkinLoader.LoadContext();
+            try (InputStream fileStream = entry.file.getInputStream()) {
+                UISkin skin = skinLoader.load(fileStream, loadContext);
+                entry.dependsOnWidgetClasses = loadContext.usesModuleWidgets();
+                return skin;
             }
-        }, ".skin", moduleContext, urn);
+        }, GestaltAssetType.SKIN, moduleContext, urn);
     }
 
     public UISkin getDefaultSkin() {
@@ -189,109 +347,545 @@ public final class GestaltModuleService implements DumbService.DumbModeListener,
     }
 
     public Font getFontByUrn(String moduleContext, String urn) {
-        Function<VirtualFile, Font> fontLoader = file -> {
-            try {
-                return new AwtBitmapFont(new FontLoader().load(file.getParent(), file.getInputStream()));
-            } catch (Exception ignore) {
-                return null;
+        return tryGetCache(createFontLoader(), GestaltAssetType.FONT, moduleContext, urn);
+    }
+
+    /**
+     * Returns a texture without blocking on it being loaded. Until it has loaded, an empty placeholder is returned.
+     * {@link #ASSETS_LOADED} is published once it has.
+     */
+    public UITextureRegion getImageByUrnAsync(String moduleContext, String urn) {
+        return getImageByUrnAsync(moduleContext, urn, false);
+    }
+
+    /**
+     * Returns a texture without blocking on it being loaded, as {@link #getImageByUrnAsync(String, String)} does.
+     *
+     * @param prefetchPixels whether to start decoding the texture's pixels in the background once it has loaded,
+     *                       rather than when it is first drawn
+     */
+    public UITextureRegion getImageByUrnAsync(String moduleContext, String urn, boolean prefetchPixels) {
+        UITextureRegion texture;
+        if (urn.contains("#")) {
+            // Atlas definitions are small, and their textures are only decoded when drawn, so this does not block for long.
+            texture = getImageByUrn(moduleContext, urn);
+        } else {
+            DeferredTextureRegion placeholder = new DeferredTextureRegion();
+            texture = getAsync(createTextureLoader(urn), GestaltAssetType.TEXTURE, moduleContext, urn, placeholder, loadedTexture -> {
+                placeholder.complete(loadedTexture);
+                if (prefetchPixels) {
+                    prefetchPixels(loadedTexture);
+                }
+            });
+        }
+
+        if (prefetchPixels) {
+            prefetchPixels(texture);
+        }
+        return texture;
+    }
+
+    private static void prefetchPixels(UITextureRegion texture) {
+        if (texture instanceof AwtTextureRegion) {
+            ((AwtTextureRegion) texture).prefetchImage();
+        }
+    }
+
+    /**
+     * Returns a font without blocking on it being loaded. Until it has loaded, a placeholder using the default
+     * IDE font is returned. {@link #ASSETS_LOADED} is published once it has.
+     */
+    public Font getFontByUrnAsync(String moduleContext, String urn) {
+        DeferredFont placeholder = new DeferredFont(new AwtFont(UIUtil.getLabelFont()));
+        return getAsync(createFontLoader(), GestaltAssetType.FONT, moduleContext, urn, placeholder, placeholder::complete);
+    }
+
+    private AssetLoader<UITextureRegion> createTextureLoader(String urn) {
+        return entry -> {
+            VirtualFile file = entry.file;
+            // Skins reference far more textures than a layout draws, so only the image header is read here.
+            try (InputStream fileStream = file.getInputStream();
+                 ImageInputStream imageStream = ImageIO.createImageInputStream(fileStream)) {
+                Iterator<ImageReader> readers = imageStream != null ? ImageIO.getImageReaders(imageStream) : Collections.emptyIterator();
+                if (!readers.hasNext()) {
+                    throw new IOException("Unsupported image format");
+                }
+
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(imageStream, true, true);
+                    return new AwtTextureRegion(urn, reader.getWidth(0), reader.getHeight(0), subsampling -> readImage(file, subsampling));
+                } finally {
+                    reader.dispose();
+                }
             }
         };
+    }
 
-        Font font = tryGetCache(moduleFontCache, fontLoader, ".fnt", moduleContext, urn);
-        if (font != null) {
-            return font;
+    private static Image readImage(VirtualFile file, int subsampling) throws IOException {
+        // The file is only read in full if the image is not shared or cached on disk yet.
+        String contentHash = SharedAssetCache.hash(file);
+        return SharedAssetCache.getInstance().getImage(contentHash, subsampling, () -> {
+            TextureDiskCache diskCache = TextureDiskCache.getInstance();
+            BufferedImage image = diskCache.read(contentHash, subsampling);
+            if (image == null) {
+                image = decodeImage(file.contentsToByteArray(), subsampling);
+                diskCache.write(contentHash, subsampling, image);
+            }
+            return image;
+        });
+    }
+
+    private static BufferedImage decodeImage(byte[] content, int subsampling) throws IOException {
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            Iterator<ImageReader> readers = imageStream != null ? ImageIO.getImageReaders(imageStream) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageStream, true, true);
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                // Skipping pixels while decoding is much cheaper than decoding them all and scaling the image down.
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, readParam);
+            } finally {
+                reader.dispose();
+            }
         }
+    }
 
-        // Alternative extension
-        return tryGetCache(moduleFontCache, fontLoader, ".font", moduleContext, urn);
+    private AssetLoader<Font> createFontLoader() {
+        return entry -> {
+            byte[] content = entry.file.contentsToByteArray();
+            StringBuilder contentHash = new StringBuilder(SharedAssetCache.hash(entry.file));
+            FontLoader loader = new FontLoader(pageFile -> {
+                String pageHash = SharedAssetCache.hash(pageFile);
+                contentHash.append(':').append(pageHash);
+                return SharedAssetCache.getInstance().getImage(pageHash, 1, () -> decodeImage(pageFile.contentsToByteArray(), 1));
+            });
+            FontData fontData = loader.load(entry.file.getParent(), new ByteArrayInputStream(content));
+            entry.additionalFiles.addAll(loader.getPageFiles());
+            return new AwtBitmapFont(SharedAssetCache.getInstance().internFontData(contentHash.toString(), fontData));
+        };
     }
 
     public void updateModuleRoots() {
-        ReadAction.nonBlocking(Executors.callable(() -> {
-            GlobalSearchScope projectSearchScope = GlobalSearchScope.projectScope(project);
-            Set<VirtualFile> outputDirectories = new HashSet<>();
-            for (VirtualFile moduleRoot : ProjectRootManager.getInstance(project).getContentRootsFromAllModules()) {
-                for (GestaltConfiguration configuration : GESTALT_CONFIGURATION_EXTENSION_POINT_NAME.getExtensionList()) {
-                    for (String directory : configuration.excludeDirs) {
-                        VirtualFile outputRoot = moduleRoot.findChild(directory);
-                        if (outputRoot != null && outputRoot.exists()) {
-                            outputDirectories.add(outputRoot);
-                        }
-                    }
-                }
+        moduleRegistry.rescan();
+    }
+
+    /**
+     * Invalidates the skins that style widgets provided by modules, rather than by NUI itself.
+     * These skins hold references to widget classes that are replaced whenever the module classes are re-loaded.
+     */
+    public void invalidateModuleWidgetSkins() {
+        invalidateMatching((key, entry) -> entry.dependsOnWidgetClasses);
+    }
+
+    /**
+     * Runs an action, recording the assets that it failed to resolve on the current thread along with the reasons why.
+     *
+     * @param failures the map to add failed asset URNs (and the failure reasons) to
+     */
+    public <R> R collectAssetFailures(Map<String, String> failures, Supplier<R> action) {
+        Map<String, String> previousCollector = assetFailureCollector.get();
+        assetFailureCollector.set(failures);
+        try {
+            return action.get();
+        } finally {
+            if (previousCollector != null) {
+                assetFailureCollector.set(previousCollector);
+            } else {
+                assetFailureCollector.remove();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T tryGetCache(AssetLoader<T> loader, GestaltAssetType assetType, String moduleContext, String urn) {
+        AssetKey cacheKey = AssetKey.create(assetType, moduleContext, urn);
+        Deque<AssetKey> loadingStack = loadingAssets.get();
+        if (loadingStack.contains(cacheKey)) {
+            // Circular reference, such as a skin that inherits from itself.
+            return null;
+        }
+        if (!loadingStack.isEmpty()) {
+            assetDependencies.addDependency(loadingStack.peek(), cacheKey);
+        }
+
+        FileCacheEntry<T> cacheEntry = (FileCacheEntry<T>) assetCache.get(cacheKey);
+        if (cacheEntry == null) {
+            cacheEntry = resolveCacheEntry(assetType, moduleContext, urn);
+            if (cacheEntry.file != null && cacheEntry.failureReason == null) {
+                loadCacheEntry(loader, cacheEntry, cacheKey);
             }
+            storeCacheEntry(cacheKey, cacheEntry);
+        }
+
+        if (cacheEntry.failureReason != null) {
+            Map<String, String> failures = assetFailureCollector.get();
+            if (failures != null) {
+                failures.put(urn, cacheEntry.failureReason);
+            }
+        }
+        return cacheEntry.cache;
+    }
+
+    private <T> T getAsync(AssetLoader<T> loader, GestaltAssetType assetType, String moduleContext, String urn,
+                           T placeholder, Consumer<T> onLoaded) {
+        AssetKey cacheKey = AssetKey.create(assetType, moduleContext, urn);
+        if (assetCache.get(cacheKey) != null || loadingAssets.get().contains(cacheKey)) {
+            return tryGetCache(loader, assetType, moduleContext, urn);
+        }
+
+        // Resolving an asset is only an index lookup, so it is done straight away. Only loading it is deferred.
+        FileCacheEntry<T> cacheEntry = resolveCacheEntry(assetType, moduleContext, urn);
+        if (cacheEntry.file == null || cacheEntry.failureReason != null) {
+            storeCacheEntry(cacheKey, cacheEntry);
+            return tryGetCache(loader, assetType, moduleContext, urn);
+        }
 
-            Predicate<VirtualFile> excludeOutputDirectoriesPredicate =
-                    file -> file.exists() && outputDirectories.stream().noneMatch(dir -> file.getPath().startsWith(dir.getPath()));
+        Deque<AssetKey> loadingStack = loadingAssets.get();
+        if (!loadingStack.isEmpty()) {
+            assetDependencies.addDependency(loadingStack.peek(), cacheKey);
+        }
 
-            FilenameIndex.getVirtualFilesByName(project, "module.txt", false, projectSearchScope).stream()
-                    .filter(excludeOutputDirectoriesPredicate)
-                    .forEach(file -> moduleRoots.put(getModuleNameFromManifest(file), file.getParent()));
-            FilenameIndex.getVirtualFilesByName(project, "module.json", false, projectSearchScope).stream()
-                    .filter(excludeOutputDirectoriesPredicate)
-                    .forEach(file -> moduleRoots.put(getModuleNameFromManifest(file), file.getParent()));
-            FilenameIndex.getVirtualFilesByName(project, "module.info", false, projectSearchScope).stream()
-                    .filter(excludeOutputDirectoriesPredicate)
-                    .forEach(file -> moduleRoots.put(getModuleNameFromManifest(file), file.getParent()));
-        })).inSmartMode(project).submit(NonUrgentExecutor.getInstance());
+        CompletableFuture<T> newLoad = new CompletableFuture<>();
+        CompletableFuture<T> pendingLoad = (CompletableFuture<T>) pendingLoads.putIfAbsent(cacheKey, newLoad);
+        if (pendingLoad == null) {
+            pendingLoad = newLoad;
+            ASSET_LOADING_EXECUTOR.execute(() -> {
+                try {
+                    loadCacheEntry(loader, cacheEntry, cacheKey);
+                    storeCacheEntry(cacheKey, cacheEntry);
+                    newLoad.complete(cacheEntry.cache);
+                } catch (Throwable t) {
+                    newLoad.completeExceptionally(t);
+                } finally {
+                    pendingLoads.remove(cacheKey, newLoad);
+                }
+            });
+        }
+
+        pendingLoad.whenComplete((asset, error) -> {
+            if (asset != null) {
+                onLoaded.accept(asset);
+            }
+            notifyAssetsLoaded();
+        });
+        return placeholder;
     }
 
-    public void invalidateSkins() {
-        moduleSkinCache.clear();
+    private void notifyAssetsLoaded() {
+        assetGeneration.incrementAndGet();
+        // Assets tend to arrive in bursts, such as all of the textures in a skin. Listeners are notified once per burst.
+        if (assetsLoadedNotificationPending.compareAndSet(false, true)) {
+            ApplicationManager.getApplication().invokeLater(() -> {
+                assetsLoadedNotificationPending.set(false);
+                project.getMessageBus().syncPublisher(ASSETS_LOADED).assetsLoaded();
+            }, project.getDisposed());
+        }
     }
 
-    private String getModuleNameFromManifest(VirtualFile manifestFile) {
+    /**
+     * Finds the file backing an asset, without loading it.
+     *
+     * @return a cache entry for the asset's file, or a failed entry if the file could not be determined
+     */
+    private <T> FileCacheEntry<T> resolveCacheEntry(GestaltAssetType assetType, String moduleContext, String urn) {
+        if (!urn.contains(":")) {
+            urn = moduleContext + ":" + urn;
+        }
+
+        GestaltUrn gestaltUrn = GestaltUrn.parse(urn);
+        if (gestaltUrn == null) {
+            return FileCacheEntry.failed(null, "'" + urn + "' is not a valid asset URN");
+        }
+
+        VirtualFile module = moduleRegistry.getModuleRoot(gestaltUrn.getModule());
+        if (module == null) {
+            return FileCacheEntry.failed(null, "Module '" + gestaltUrn.getModule() + "' could not be found");
+        }
+
+        List<VirtualFile> candidates = findAssetFiles(gestaltUrn, assetType, module);
+        VirtualFile file = selectAssetFile(candidates, assetType);
+        if (file == null) {
+            FileCacheEntry<T> failedEntry;
+            if (candidates.isEmpty()) {
+                failedEntry = FileCacheEntry.failed(null, "No " + assetType.name().toLowerCase(Locale.ROOT)
+                        + " named '" + gestaltUrn.getAsset() + "' in module '" + gestaltUrn.getModule() + "'");
+            } else {
+                failedEntry = FileCacheEntry.failed(null, "Ambiguous " + assetType.name().toLowerCase(Locale.ROOT)
+                        + " '" + gestaltUrn + "': " + candidates.size() + " matching files");
+                // Removing one of the files may resolve the ambiguity.
+                failedEntry.additionalFiles.addAll(candidates);
+            }
+            return failedEntry;
+        }
+
+        return new FileCacheEntry<>(file);
+    }
+
+    private <T> void loadCacheEntry(AssetLoader<T> loader, FileCacheEntry<T> cacheEntry, AssetKey cacheKey) {
+        assetDependencies.clearDependencies(cacheKey);
+        Deque<AssetKey> loadingStack = loadingAssets.get();
+        loadingStack.push(cacheKey);
         try {
-            JsonElement json = new JsonParser().parse(new InputStreamReader(manifestFile.getInputStream()));
-            return json.getAsJsonObject().get("id").getAsString();
-        } catch (Throwable ignore) {
-            // TODO: Error?
-            return manifestFile.getParent().getName();
+            cacheEntry.cache = loader.load(cacheEntry);
+        } catch (ProcessCanceledException e) {
+            // Skins look up widget classes in the indexes. The asset is loaded again once the read action restarts.
+            throw e;
+        } catch (Exception e) {
+            cacheEntry.cache = null;
+            cacheEntry.failureReason = "Failed to load '" + cacheEntry.file.getPresentableUrl() + "': " + e;
+        } finally {
+            loadingStack.pop();
         }
     }
 
-    private <T> T tryGetCache(Map<String, FileCacheEntry<T>> cache, Function<VirtualFile, T> loader, String extension,
-                              String moduleContext, String urn) {
-        FileCacheEntry<T> cacheEntry = cache.get(urn);
-        if (cacheEntry == null || cacheEntry.lastModified != cacheEntry.file.getModificationStamp()) {
-            if (!urn.contains(":")) {
-                urn = moduleContext + ":" + urn;
+    private void storeCacheEntry(AssetKey cacheKey, FileCacheEntry<?> cacheEntry) {
+        // Files are tracked first, so that they are untracked again if the entry is evicted straight away.
+        if (cacheEntry.file != null) {
+            trackFile(cacheEntry.file, cacheKey);
+        }
+        for (VirtualFile additionalFile : cacheEntry.additionalFiles) {
+            trackFile(additionalFile, cacheKey);
+        }
+        if (cacheEntry.file == null) {
+            missingAssetsByName.computeIfAbsent(getAssetName(cacheKey.urn), name -> ConcurrentHashMap.newKeySet()).add(cacheKey);
+        }
+        assetCache.put(cacheKey, cacheEntry);
+    }
+
+    private List<VirtualFile> findAssetFiles(GestaltUrn urn, GestaltAssetType assetType, VirtualFile moduleRoot) {
+        List<VirtualFile> files = new ArrayList<>();
+        FileBasedIndex.getInstance().processValues(GestaltAssetIndex.NAME, urn.getAsset(), null, (file, fileAssetType) -> {
+            // Modules can be nested, so the files of any nested modules are skipped.
+            if (fileAssetType == assetType && urn.getModule().equalsIgnoreCase(moduleRegistry.getModuleIdForFile(file))) {
+                files.add(file);
             }
+            return true;
+        }, GlobalSearchScopesCore.directoryScope(project, moduleRoot, true));
+        return files;
+    }
 
-            GestaltUrn gestaltUrn = GestaltUrn.parse(urn);
-            if (gestaltUrn == null) {
-                // TODO: Return error
-                return null;
+    private static VirtualFile selectAssetFile(List<VirtualFile> files, GestaltAssetType assetType) {
+        // Extensions are tried in order of preference. An extension only matches if exactly one file uses it.
+        for (String extension : assetType.getExtensions()) {
+            VirtualFile match = null;
+            int matchCount = 0;
+            for (VirtualFile file : files) {
+                if (extension.equalsIgnoreCase(file.getExtension())) {
+                    match = file;
+                    matchCount++;
+                }
             }
 
-            VirtualFile module = moduleRoots.get(gestaltUrn.getModule().toLowerCase(Locale.ROOT));
-            if (module == null) {
-                // TODO: Return error
-                return null;
+            if (matchCount == 1) {
+                return match;
             }
-            String asset = gestaltUrn.getAsset().toLowerCase(Locale.ROOT) + extension;
-            Collection<VirtualFile> files = FilenameIndex.getVirtualFilesByName(project, asset, false,
-                    GlobalSearchScopesCore.directoryScope(project, module, true));
-            if (files.size() != 1) {
-                // TODO: Return error
-                return null;
-            } else {
-                try {
-                    cacheEntry = new FileCacheEntry<>(files.stream().findFirst().get());
-                    T cachedValue = loader.apply(cacheEntry.file);
-                    cacheEntry.cache = cachedValue;
-                    cacheEntry.lastModified = cacheEntry.file.getModificationStamp();
-                    cache.put(urn, cacheEntry);
-                    return cachedValue;
-                } catch (Exception ignore) {
+        }
+        return null;
+    }
+
+    private void trackFile(VirtualFile file, AssetKey key) {
+        trackedFilesByKey.computeIfAbsent(key, trackedKey -> ConcurrentHashMap.newKeySet()).add(file);
+        assetKeysByFile.computeIfAbsent(file, trackedFile -> {
+            trackedFilesByName.computeIfAbsent(getFileAssetName(trackedFile), name -> ConcurrentHashMap.newKeySet()).add(trackedFile);
+            return ConcurrentHashMap.newKeySet();
+        }).add(key);
+    }
+
+    /**
+     * Stops finding a file by its name. This is only called whilst the file's asset keys are being removed.
+     */
+    private void untrackFileName(VirtualFile file) {
+        trackedFilesByName.computeIfPresent(getFileAssetName(file), (name, files) -> {
+            files.remove(file);
+            return files.isEmpty() ? null : files;
+        });
+    }
+
+    /**
+     * Called whenever an asset leaves the cache, whether it was invalidated or evicted.
+     */
+    private void assetRemoved(AssetKey key) {
+        untrackAsset(key);
+        missingAssetsByName.computeIfPresent(getAssetName(key.urn), (name, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+        // The assets built from this one are only invalidated through its files, which are no longer tracked.
+        // This also drops the asset from the dependency graph, which would otherwise grow for as long as the project is open.
+        for (AssetKey removedKey : assetDependencies.removeWithDependents(key)) {
+            if (!removedKey.equals(key)) {
+                assetCache.remove(removedKey);
+            }
+        }
+    }
+
+    private void untrackAsset(AssetKey key) {
+        Set<VirtualFile> files = trackedFilesByKey.remove(key);
+        if (files == null) {
+            return;
+        }
+
+        for (VirtualFile file : files) {
+            assetKeysByFile.computeIfPresent(file, (trackedFile, keys) -> {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    untrackFileName(trackedFile);
                     return null;
                 }
+                return keys;
+            });
+        }
+    }
+
+    private void invalidateFile(VirtualFile file) {
+        List<VirtualFile> invalidatedFiles = new ArrayList<>();
+        if (file.isDirectory()) {
+            for (VirtualFile trackedFile : assetKeysByFile.keySet()) {
+                if (VfsUtilCore.isAncestor(file, trackedFile, false)) {
+                    invalidatedFiles.add(trackedFile);
+                }
             }
         } else {
-            return cacheEntry.cache;
+            invalidatedFiles.add(file);
+        }
+
+        for (VirtualFile invalidatedFile : invalidatedFiles) {
+            List<AssetKey> keys = new ArrayList<>();
+            assetKeysByFile.computeIfPresent(invalidatedFile, (trackedFile, trackedKeys) -> {
+                keys.addAll(trackedKeys);
+                untrackFileName(trackedFile);
+                return null;
+            });
+
+            for (AssetKey key : keys) {
+                invalidateAsset(key);
+            }
+        }
+    }
+
+    private void invalidateMatching(BiPredicate<AssetKey, FileCacheEntry<?>> predicate) {
+        List<AssetKey> invalidatedKeys = new ArrayList<>();
+        assetCache.removeIf((key, entry) -> {
+            if (predicate.test(key, entry)) {
+                invalidatedKeys.add(key);
+                return true;
+            }
+            return false;
+        });
+
+        for (AssetKey key : invalidatedKeys) {
+            invalidateAsset(key);
         }
     }
 
+    /**
+     * Invalidates an asset, along with every asset (usually skins) that was built using it.
+     */
+    private void invalidateAsset(AssetKey key) {
+        assetGeneration.incrementAndGet();
+        for (AssetKey invalidatedKey : assetDependencies.removeWithDependents(key)) {
+            assetCache.remove(invalidatedKey);
+        }
+    }
+
+    /**
+     * Invalidates any asset that could now resolve to a different file, due to a file with the same name appearing.
+     */
+    private void invalidateAssetName(String fileName) {
+        GestaltAssetType assetType = GestaltAssetType.forExtension(FileUtilRt.getExtension(fileName));
+        if (assetType == null) {
+            return;
+        }
+
+        // This runs for every file created during a write action, such as a branch checkout, so it only uses lookups.
+        String assetName = FileUtilRt.getNameWithoutExtension(fileName).toLowerCase(Locale.ROOT);
+        Set<VirtualFile> trackedFiles = trackedFilesByName.get(assetName);
+        if (trackedFiles != null) {
+            for (VirtualFile trackedFile : List.copyOf(trackedFiles)) {
+                invalidateFile(trackedFile);
+            }
+        }
+
+        // The asset may previously have been missing.
+        Set<AssetKey> missingKeys = missingAssetsByName.get(assetName);
+        if (missingKeys != null) {
+            for (AssetKey key : List.copyOf(missingKeys)) {
+                if (key.assetType == assetType) {
+                    invalidateAsset(key);
+                }
+            }
+        }
+    }
+
+    private static String getFileAssetName(VirtualFile file) {
+        return file.getNameWithoutExtension().toLowerCase(Locale.ROOT);
+    }
+
+    private static String getAssetName(String urn) {
+        int assetStart = urn.indexOf(':') + 1;
+        int assetEnd = urn.length();
+        for (int charNo = assetStart; charNo < urn.length(); charNo++) {
+            char character = urn.charAt(charNo);
+            if (character == '#' || character == '!') {
+                assetEnd = charNo;
+                break;
+            }
+        }
+        return urn.substring(assetStart, assetEnd).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void before(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (event instanceof VFileDeleteEvent || event instanceof VFileMoveEvent
+                    || (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename())) {
+                invalidateFile(event.getFile());
+            }
+        }
+    }
+
+    @Override
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            if (event instanceof VFileContentChangeEvent) {
+                invalidateFile(event.getFile());
+            } else if (event instanceof VFileCreateEvent || event instanceof VFileCopyEvent || event instanceof VFileMoveEvent
+                    || (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename())) {
+                invalidateAssetName(PathUtil.getFileName(event.getPath()));
+            }
+        }
+    }
+
+    private static long estimateMemoryUsage(FileCacheEntry<?> entry) {
+        if (entry.cache instanceof AwtTextureRegion) {
+            // Textures are weighed by their decoded size, even before being drawn, so the cache bound holds once they are.
+            AwtTextureRegion texture = (AwtTextureRegion) entry.cache;
+            return 4L * Math.max(texture.getWidth(), 0) * Math.max(texture.getHeight(), 0);
+        } else if (entry.cache instanceof AwtBitmapFont) {
+            long size = 0;
+            for (Image page : ((AwtBitmapFont) entry.cache).getPages()) {
+                size += estimateMemoryUsage(page);
+            }
+            return size;
+        } else if (entry.file != null) {
+            // Skins and atlases are mostly references to other assets, so their source size is a good enough approximation.
+            return entry.file.getLength();
+        } else {
+            return 2L * entry.failureReason.length();
+        }
+    }
+
+    private static long estimateMemoryUsage(Image image) {
+        // Decoded images are stored as 32-bit ARGB pixels.
+        return 4L * Math.max(image.getWidth(null), 0) * Math.max(image.getHeight(null), 0);
+    }
+
     @Override
     public void exitDumbMode() {
         updateModuleRoots();
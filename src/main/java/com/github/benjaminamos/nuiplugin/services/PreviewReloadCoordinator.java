@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.services;
+
+import com.github.benjaminamos.nuiplugin.classloader.NuiClassLoader;
+import com.github.benjaminamos.nuiplugin.classloader.NuiClassLoaderCache;
+import com.github.benjaminamos.nuiplugin.languages.NuiFilePreviewer;
+import com.github.benjaminamos.nuiplugin.languages.NuiFileSplitEditor;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Schedules preview reloads for the whole project, and reloads the open previews affected by newly compiled classes.
+ */
+@Service
+public final class PreviewReloadCoordinator {
+    /**
+     * Previews of the selected files are loaded separately, so that they are not queued behind hidden tabs.
+     */
+    private static final Executor VISIBLE_PREVIEW_EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NUI Visible Preview Loading", 1);
+    private static final Executor BACKGROUND_PREVIEW_EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("NUI Background Preview Loading", 1);
+    private final Project project;
+
+    public PreviewReloadCoordinator(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Schedules a preview to be reloaded once indexing has finished. Repeated requests for the same preview are
+     * coalesced, cancelling any that have not finished yet, and previews of the selected files are loaded first.
+     */
+    public void scheduleReload(NuiFilePreviewer filePreviewer) {
+        boolean visible = ArrayUtil.contains(filePreviewer.getFile(), FileEditorManager.getInstance(project).getSelectedFiles());
+        ReadAction.nonBlocking(filePreviewer::reloadNow)
+                .inSmartMode(project)
+                .expireWith(filePreviewer)
+                .coalesceBy(this, filePreviewer)
+                .submit(visible ? VISIBLE_PREVIEW_EXECUTOR : BACKGROUND_PREVIEW_EXECUTOR);
+    }
+
+    /**
+     * Called once the given modules have been compiled. The class loaders for their outputs are replaced, and previews
+     * showing widgets from those class loaders are reloaded. Their widget classes are then loaded again on-demand.
+     */
+    public void modulesCompiled(Collection<Module> modules) {
+        Set<NuiClassLoader> retiredClassLoaders = project.getService(NuiClassLoaderCache.class).outputsChanged(modules);
+        classLoadersRetired(retiredClassLoaders);
+    }
+
+    /**
+     * Reloads the previews showing widgets from the given class loaders, along with those that could not load their widgets.
+     */
+    public void classLoadersRetired(Set<NuiClassLoader> retiredClassLoaders) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            for (FileEditor fileEditor : FileEditorManager.getInstance(project).getAllEditors()) {
+                if (fileEditor instanceof NuiFileSplitEditor) {
+                    NuiFilePreviewer filePreviewer = (NuiFilePreviewer) ((NuiFileSplitEditor) fileEditor).getPreviewEditor();
+                    if (filePreviewer.usesWidgetsFrom(retiredClassLoaders)) {
+                        filePreviewer.reload();
+                    }
+                }
+            }
+        }, project.getDisposed());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.services;
+
+import com.github.benjaminamos.nuiplugin.nui.bitmapfont.FontData;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+
+import java.awt.Image;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decoded assets shared between every open project, keyed by the hash of their content.
+ * <p>
+ * Projects often contain identical copies of the same assets, such as the engine textures, fonts and skins.
+ * Each project caches its own references into this cache, which only keeps an asset whilst a project still uses it.
+ */
+@Service
+public final class SharedAssetCache {
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    private static final class ContentHash {
+        private final long modificationStamp;
+        private final long length;
+        private final String hash;
+
+        private ContentHash(long modificationStamp, long length, String hash) {
+            this.modificationStamp = modificationStamp;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private static final Key<ContentHash> CONTENT_HASH_KEY = Key.create("nuiplugin.contentHash");
+    private final ConcurrentMap<String, Object> assets = ContainerUtil.createConcurrentWeakValueMap();
+
+    public static SharedAssetCache getInstance() {
+        return ApplicationManager.getApplication().getService(SharedAssetCache.class);
+    }
+
+    public static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the {@link #hash(byte[])} of a file's content. The hash is remembered until the file changes, so that
+     * shared assets can be found without reading their files again.
+     */
+    public static String hash(VirtualFile file) throws IOException {
+        // The stamp is read first, so that a change whilst the file is being read is hashed again next time.
+        long modificationStamp = file.getModificationStamp();
+        long length = file.getLength();
+        ContentHash contentHash = file.getUserData(CONTENT_HASH_KEY);
+        if (contentHash == null || contentHash.modificationStamp != modificationStamp || contentHash.length != length) {
+            contentHash = new ContentHash(modificationStamp, length, hash(file.contentsToByteArray()));
+            file.putUserData(CONTENT_HASH_KEY, contentHash);
+        }
+        return contentHash.hash;
+    }
+
+    /**
+     * @param contentHash the {@link #hash(byte[])} of the encoded image
+     * @param subsampling the subsampling that the image is decoded with
+     * @param loader decodes the image if it is not already shared
+     */
+    public Image getImage(String contentHash, int subsampling, Loader<Image> loader) throws IOException {
+        return get("image:" + contentHash + "@" + subsampling, Image.class, loader);
+    }
+
+    /**
+     * Parsing font definitions is cheap, so fonts are parsed before being shared. Their pages are shared through
+     * {@link #getImage(String, int, Loader)} whilst parsing.
+     * @param contentHash identifies the content of the font definition and all of its pages
+     * @return the shared font data with that content, which is {@code fontData} if none was shared yet
+     */
+    public FontData internFontData(String contentHash, FontData fontData) throws IOException {
+        return get("font:" + contentHash, FontData.class, () -> fontData);
+    }
+
+    private <T> T get(String key, Class<T> type, Loader<T> loader) throws IOException {
+        Object asset = assets.get(key);
+        if (type.isInstance(asset)) {
+            return type.cast(asset);
+        }
+
+        // Concurrent loads of the same asset are rare enough that they are not worth blocking for.
+        // Whichever finishes first is the one that is shared.
+        T loadedAsset = loader.load();
+        Object sharedAsset = assets.putIfAbsent(key, loadedAsset);
+        return type.isInstance(sharedAsset) ? type.cast(sharedAsset) : loadedAsset;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.services;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.registry.Registry;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An optional on-disk cache of decoded textures, stored under the IDE system directory.
+ * <p>
+ * Large images, such as menu backgrounds, take far longer to decode than to read back as raw pixels.
+ * Each image is stored as a small header followed by its ARGB pixels, which are read straight into the image.
+ * Files are keyed by the hash of the encoded image, and the least recently used are removed when the cache is too large.
+ */
+@Service
+public final class TextureDiskCache {
+    private static final Logger logger = Logger.getInstance(TextureDiskCache.class);
+    private static final String ENABLED_REGISTRY_KEY = "nuiplugin.asset.disk.cache.enabled";
+    private static final String SIZE_REGISTRY_KEY = "nuiplugin.asset.disk.cache.size.mb";
+    private static final int MAGIC = 0x4E554954; // "NUIT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+    private static final String FILE_EXTENSION = ".argb";
+    /**
+     * Smaller images decode quickly enough that caching them is not worth the disk space.
+     */
+    private static final long MIN_CACHED_PIXELS = 256L * 256L;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private final Path cacheDirectory = PathManager.getSystemDir().resolve("nui-plugin").resolve("textures");
+    private final Object cleanupLock = new Object();
+    /**
+     * The approximate size of the cache on disk, or -1 if it has not been measured yet.
+     */
+    private long cacheSize = -1;
+
+    public static TextureDiskCache getInstance() {
+        return ApplicationManager.getApplication().getService(TextureDiskCache.class);
+    }
+
+    public boolean isEnabled() {
+        return Registry.is(ENABLED_REGISTRY_KEY, false);
+    }
+
+    /**
+     * @param contentHash the hash of the encoded image
+     * @return the cached image, or null if it is not cached
+     */
+    public BufferedImage read(String contentHash, int subsampling) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Path file = getFile(contentHash, subsampling);
+        BufferedImage image;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            image = readImage(channel);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to read cached texture " + file, e);
+            return null;
+        }
+
+        // The file is only deleted or touched once it is closed, since open files cannot be deleted on Windows.
+        try {
+            if (image == null) {
+                Files.deleteIfExists(file);
+            } else {
+                // The modification time records when the file was last used, for least-recently-used removal.
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to update cached texture " + file, e);
+        }
+        return image;
+    }
+
+    /**
+     * @return the image, or null if the file is not a valid cached image
+     */
+    private static BufferedImage readImage(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header) || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+
+        int width = header.getInt();
+        int height = header.getInt();
+        if (width <= 0 || height <= 0 || channel.size() != HEADER_SIZE + 4L * width * height) {
+            return null;
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        // The pixels are copied into the image a block at a time, so the file is never held in memory as a whole.
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int pixelNo = 0;
+        while (pixelNo < pixels.length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), (long) (pixels.length - pixelNo) * Integer.BYTES));
+            if (!readFully(channel, buffer)) {
+                return null;
+            }
+
+            IntBuffer pixelBuffer = buffer.asIntBuffer();
+            int pixelCount = pixelBuffer.remaining();
+            pixelBuffer.get(pixels, pixelNo, pixelCount);
+            pixelNo += pixelCount;
+        }
+        return image;
+    }
+
+    /**
+     * Fills the buffer from the channel, then flips it so that it can be read.
+     *
+     * @return false if the end of the channel was reached first
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Stores a decoded image, if it is large enough to be worth caching.
+     * @param contentHash the hash of the encoded image
+     */
+    public void write(String contentHash, int subsampling, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (!isEnabled() || (long) width * height < MIN_CACHED_PIXELS) {
+            return;
+        }
+
+        Path file = getFile(contentHash, subsampling);
+        try {
+            Files.createDirectories(cacheDirectory);
+            Path temporaryFile = Files.createTempFile(cacheDirectory, contentHash, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(width).putInt(height).flip();
+                    channel.write(header);
+
+                    // Written a row at a time, so that only one row is ever copied into memory.
+                    int[] row = new int[width];
+                    ByteBuffer rowBuffer = ByteBuffer.allocate(width * Integer.BYTES);
+                    for (int y = 0; y < height; y++) {
+                        image.getRGB(0, y, width, 1, row, 0, width);
+                        rowBuffer.clear();
+                        rowBuffer.asIntBuffer().put(row);
+                        channel.write(rowBuffer);
+                    }
+                }
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+
+            removeLeastRecentlyUsed(HEADER_SIZE + 4L * width * height);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to cache texture " + file, e);
+        }
+    }
+
+    private Path getFile(String contentHash, int subsampling) {
+        return cacheDirectory.resolve(contentHash + "@" + subsampling + FILE_EXTENSION);
+    }
+
+    private void removeLeastRecentlyUsed(long addedSize) throws IOException {
+        long maxSize = Registry.intValue(SIZE_REGISTRY_KEY, 512) * 1024L * 1024L;
+        synchronized (cleanupLock) {
+            if (cacheSize >= 0) {
+                cacheSize += addedSize;
+                if (cacheSize <= maxSize) {
+                    return;
+                }
+            }
+
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> cacheFiles = Files.list(cacheDirectory)) {
+                cacheFiles.filter(file -> file.getFileName().toString().endsWith(FILE_EXTENSION)).forEach(files::add);
+            }
+
+            long totalSize = 0;
+            Map<Path, FileTime> lastUsedTimes = new HashMap<>();
+            for (Path file : files) {
+                totalSize += Files.size(file);
+                lastUsedTimes.put(file, Files.getLastModifiedTime(file));
+            }
+            files.sort(Comparator.comparing(lastUsedTimes::get));
+
+            for (Path file : files) {
+                if (totalSize <= maxSize) {
+                    break;
+                }
+                long fileSize = Files.size(file);
+                if (Files.deleteIfExists(file)) {
+                    totalSize -= fileSize;
+                }
+            }
+            cacheSize = totalSize;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.utils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a Gestalt module manifest that the plugin uses.
+ */
+public final class GestaltModuleManifest {
+    public static final List<String> MANIFEST_NAMES = List.of("module.txt", "module.json", "module.info");
+    private static final Logger logger = Logger.getInstance(GestaltModuleManifest.class);
+    private final String id;
+    private final List<String> dependencyIds;
+
+    private GestaltModuleManifest(String id, List<String> dependencyIds) {
+        this.id = id;
+        this.dependencyIds = dependencyIds;
+    }
+
+    public static boolean isManifest(VirtualFile file) {
+        return MANIFEST_NAMES.contains(file.getName());
+    }
+
+    public static VirtualFile findManifest(VirtualFile directory) {
+        for (String manifestName : MANIFEST_NAMES) {
+            VirtualFile manifest = directory.findChild(manifestName);
+            if (manifest != null && !manifest.isDirectory()) {
+                return manifest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a manifest. Gestalt names modules without a valid manifest id after their directory, so that is used
+     * (and a warning logged) if the manifest cannot be read.
+     */
+    public static GestaltModuleManifest read(VirtualFile manifestFile) {
+        String directoryName = manifestFile.getParent().getName();
+        JsonObject manifest;
+        try (Reader reader = new InputStreamReader(manifestFile.getInputStream(), StandardCharsets.UTF_8)) {
+            JsonElement json = new JsonParser().parse(reader);
+            if (!json.isJsonObject()) {
+                logger.warn("Module manifest " + manifestFile.getPresentableUrl() + " is not a JSON object. "
+                        + "Using the directory name '" + directoryName + "' as the module id.");
+                return new GestaltModuleManifest(directoryName, List.of());
+            }
+            manifest = json.getAsJsonObject();
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Unable to read module manifest " + manifestFile.getPresentableUrl() + ". "
+                    + "Using the directory name '" + directoryName + "' as the module id.", e);
+            return new GestaltModuleManifest(directoryName, List.of());
+        }
+
+        JsonElement id = manifest.get("id");
+        String moduleId;
+        if (id != null && id.isJsonPrimitive() && !id.getAsString().isEmpty()) {
+            moduleId = id.getAsString();
+        } else {
+            logger.warn("Module manifest " + manifestFile.getPresentableUrl() + " has no id. "
+                    + "Using the directory name '" + directoryName + "' as the module id.");
+            moduleId = directoryName;
+        }
+
+        List<String> dependencyIds = new ArrayList<>();
+        JsonElement dependencies = manifest.get("dependencies");
+        if (dependencies != null && dependencies.isJsonArray()) {
+            for (JsonElement dependency : dependencies.getAsJsonArray()) {
+                JsonElement dependencyId = dependency.isJsonObject() ? dependency.getAsJsonObject().get("id") : null;
+                if (dependencyId != null && dependencyId.isJsonPrimitive()) {
+                    dependencyIds.add(dependencyId.getAsString());
+                }
+            }
+        }
+        return new GestaltModuleManifest(moduleId, List.copyOf(dependencyIds));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the ids of the modules that the module depends on, in the order that they are declared
+     */
+    public List<String> getDependencyIds() {
+        return dependencyIds;
+    }
+}
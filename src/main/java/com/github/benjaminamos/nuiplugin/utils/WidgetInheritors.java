@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.utils;
+
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.module.ModuleUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.ClassInheritorsSearch;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import org.jetbrains.annotations.Nullable;
+import org.terasology.nui.UIWidget;
+
+import java.util.List;
+
+public final class WidgetInheritors {
+    private static final Key<CachedValue<List<PsiClass>>> WIDGET_CLASSES_KEY = Key.create("com.github.benjaminamos.nuiplugin.utils.WidgetInheritors");
+
+    private WidgetInheritors() {
+    }
+
+    /**
+     * Finds the module containing the code for a file. Gradle projects keep the code in a separate ".main" module.
+     */
+    public static @Nullable Module findCodeModule(Project project, VirtualFile file) {
+        Module fileModule = ModuleUtil.findModuleForFile(file, project);
+        if (fileModule == null) {
+            return null;
+        }
+
+        Module codeModule = ModuleManager.getInstance(project).findModuleByName(fileModule.getName() + ".main");
+        return codeModule != null ? codeModule : fileModule;
+    }
+
+    /**
+     * Returns every {@link UIWidget} inheritor in the runtime scope of a module.
+     * The search is expensive, so its result is cached until the Java code structure or the project roots change.
+     */
+    public static List<PsiClass> getWidgetClasses(Module module) {
+        return CachedValuesManager.getManager(module.getProject()).getCachedValue(module, WIDGET_CLASSES_KEY, () -> {
+            Project project = module.getProject();
+            PsiClass uiWidgetClass = JavaPsiFacade.getInstance(project).findClass(UIWidget.class.getName(), GlobalSearchScope.allScope(project));
+            List<PsiClass> widgetClasses = uiWidgetClass != null
+                    ? List.copyOf(ClassInheritorsSearch.search(uiWidgetClass, module.getModuleRuntimeScope(false), true).findAll())
+                    : List.of();
+            return CachedValueProvider.Result.create(widgetClasses,
+                    PsiModificationTracker.getInstance(project).forLanguage(JavaLanguage.INSTANCE),
+                    ProjectRootManager.getInstance(project));
+        }, false);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.cache;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AssetCacheTest {
+    private Disposable disposable;
+    private final List<String> removedKeys = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        disposable = Disposer.newDisposable();
+    }
+
+    @After
+    public void tearDown() {
+        Disposer.dispose(disposable);
+    }
+
+    private AssetCache<String, String> createCache(long maximumWeight) {
+        return new AssetCache<>(String::length, () -> maximumWeight, removedKeys::add, disposable);
+    }
+
+    @Test
+    public void testEntriesAreWeighed() {
+        AssetCache<String, String> cache = createCache(100);
+        cache.put("a", "xx");
+        cache.put("b", "yyy");
+
+        assertEquals(5, cache.getTotalWeight());
+        cache.remove("a");
+        assertEquals(3, cache.getTotalWeight());
+        assertEquals(List.of("a"), removedKeys);
+    }
+
+    @Test
+    public void testReplacingAnEntryReplacesItsWeight() {
+        AssetCache<String, String> cache = createCache(100);
+        cache.put("a", "xx");
+        cache.put("a", "xxxx");
+
+        assertEquals(4, cache.getTotalWeight());
+        assertEquals("xxxx", cache.get("a"));
+        assertEquals(List.of(), removedKeys);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        AssetCache<String, String> cache = createCache(6);
+        cache.put("a", "xx");
+        cache.put("b", "yy");
+        cache.put("c", "zz");
+        cache.get("a");
+        cache.put("d", "ww");
+
+        assertNull(cache.get("b"));
+        assertEquals("xx", cache.get("a"));
+        assertEquals("zz", cache.get("c"));
+        assertEquals("ww", cache.get("d"));
+        assertEquals(6, cache.getTotalWeight());
+        assertEquals(List.of("b"), removedKeys);
+    }
+
+    @Test
+    public void testEntriesAreEvictedUntilWithinBudget() {
+        AssetCache<String, String> cache = createCache(5);
+        cache.put("a", "x");
+        cache.put("b", "y");
+        cache.put("c", "zzzzz");
+
+        assertEquals(5, cache.getTotalWeight());
+        assertEquals(List.of("a", "b"), removedKeys);
+    }
+
+    @Test
+    public void testSoftenedEntriesDoNotCountTowardsBudget() {
+        AssetCache<String, String> cache = createCache(4);
+        cache.put("a", "xx");
+        cache.put("b", "yy");
+        cache.softenAll();
+
+        assertEquals(0, cache.getTotalWeight());
+        cache.put("c", "zzzz");
+        assertEquals(List.of(), removedKeys);
+
+        // Using a softened entry makes it strong again, so it counts towards the budget once more.
+        // The least-recently used entries are then evicted, whether softened or not.
+        assertEquals("xx", cache.get("a"));
+        assertEquals(2, cache.getTotalWeight());
+        assertEquals(List.of("b", "c"), removedKeys);
+    }
+
+    @Test
+    public void testRemoveIfNotifiesRemovedKeys() {
+        AssetCache<String, String> cache = createCache(100);
+        cache.put("a", "xx");
+        cache.put("b", "yyy");
+        cache.put("c", "zz");
+        cache.removeIf((key, value) -> value.length() == 2);
+
+        assertEquals(3, cache.getTotalWeight());
+        assertEquals(List.of("a", "c"), removedKeys);
+    }
+
+    @Test
+    public void testRemovalListenerCanRemoveFurtherKeys() {
+        List<AssetCache<String, String>> cacheHolder = new ArrayList<>();
+        AssetCache<String, String> cache = new AssetCache<>(String::length, () -> 4, key -> {
+            removedKeys.add(key);
+            if (key.equals("dependency")) {
+                cacheHolder.get(0).remove("dependent");
+            }
+        }, disposable);
+        cacheHolder.add(cache);
+        cache.put("dependency", "x");
+        cache.put("dependent", "y");
+        cache.put("other", "zzz");
+
+        assertNull(cache.get("dependent"));
+        assertEquals("zzz", cache.get("other"));
+        assertEquals(3, cache.getTotalWeight());
+        assertEquals(List.of("dependency", "dependent"), removedKeys);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.cache;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class AssetDependencyGraphTest {
+    @Test
+    public void testDependentsAreFoundTransitively() {
+        AssetDependencyGraph<String> graph = new AssetDependencyGraph<>();
+        graph.addDependency("skin", "parentSkin");
+        graph.addDependency("parentSkin", "texture");
+        graph.addDependency("otherSkin", "font");
+
+        assertEquals(Set.of("skin", "parentSkin"), graph.getDependents("texture"));
+        assertEquals(Set.of(), graph.getDependents("skin"));
+    }
+
+    @Test
+    public void testRemoveWithDependentsRemovesEveryDependent() {
+        AssetDependencyGraph<String> graph = new AssetDependencyGraph<>();
+        graph.addDependency("skin", "parentSkin");
+        graph.addDependency("parentSkin", "texture");
+        graph.addDependency("skin", "font");
+        graph.addDependency("otherSkin", "font");
+
+        assertEquals(Set.of("texture", "parentSkin", "skin"), graph.removeWithDependents("texture"));
+        // The removed skin no longer depends on the font, but other skins still do.
+        assertEquals(Set.of("otherSkin"), graph.getDependents("font"));
+        assertEquals(Set.of(), graph.getDependents("texture"));
+    }
+
+    @Test
+    public void testRemoveWithDependentsOfUnknownAsset() {
+        AssetDependencyGraph<String> graph = new AssetDependencyGraph<>();
+        graph.addDependency("skin", "texture");
+
+        assertEquals(Set.of("font"), graph.removeWithDependents("font"));
+        assertEquals(Set.of("skin"), graph.getDependents("texture"));
+    }
+
+    @Test
+    public void testRemoveWithDependentsHandlesCycles() {
+        AssetDependencyGraph<String> graph = new AssetDependencyGraph<>();
+        graph.addDependency("a", "b");
+        graph.addDependency("b", "a");
+
+        assertEquals(Set.of("a", "b"), graph.removeWithDependents("a"));
+        assertEquals(Set.of(), graph.getDependents("b"));
+    }
+
+    @Test
+    public void testClearDependencies() {
+        AssetDependencyGraph<String> graph = new AssetDependencyGraph<>();
+        graph.addDependency("skin", "texture");
+        graph.addDependency("skin", "font");
+        graph.clearDependencies("skin");
+
+        assertEquals(Set.of(), graph.getDependents("texture"));
+        assertEquals(Set.of(), graph.getDependents("font"));
+    }
+}
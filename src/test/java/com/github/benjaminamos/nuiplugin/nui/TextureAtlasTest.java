@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import org.junit.Test;
+import org.terasology.joml.geom.Rectanglei;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+public class TextureAtlasTest {
+    private static final String TEXTURE_URN = "engine:items";
+    private final AwtTextureRegion texture = new AwtTextureRegion(TEXTURE_URN, new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB));
+
+    private TextureAtlas load(String definition) throws IOException {
+        return TextureAtlas.load(new ByteArrayInputStream(definition.getBytes(StandardCharsets.UTF_8)),
+                urn -> urn.equals(TEXTURE_URN) ? texture : null);
+    }
+
+    private static void assertPixelRegion(int minX, int minY, int maxX, int maxY, AwtTextureRegion subImage) {
+        Rectanglei pixelRegion = subImage.getPixelRegion();
+        assertEquals(minX, pixelRegion.minX);
+        assertEquals(minY, pixelRegion.minY);
+        assertEquals(maxX, pixelRegion.maxX);
+        assertEquals(maxY, pixelRegion.maxY);
+    }
+
+    @Test
+    public void testGrid() throws IOException {
+        TextureAtlas atlas = load("{\"texture\": \"engine:items\", \"grid\": {\"tileSize\": [16, 16], "
+                + "\"gridDimensions\": [2, 2], \"gridOffset\": [8, 0], \"tileNames\": [\"a\", \"b\", \"c\", \"d\"]}}");
+
+        assertEquals(TEXTURE_URN, atlas.getTextureUrn());
+        assertPixelRegion(8, 0, 24, 16, atlas.getSubImage("a"));
+        assertPixelRegion(24, 16, 40, 32, atlas.getSubImage("d"));
+        assertEquals(16, atlas.getSubImage("b").getWidth());
+        assertNull(atlas.getSubImage("e"));
+    }
+
+    @Test
+    public void testSubImageNamesAreCaseInsensitive() throws IOException {
+        TextureAtlas atlas = load("{\"texture\": \"engine:items\", \"subimages\": [{\"name\": \"Pickaxe\", \"min\": [0, 0], \"max\": [4, 4]}]}");
+
+        assertPixelRegion(0, 0, 4, 4, atlas.getSubImage("pickaxe"));
+        assertPixelRegion(0, 0, 4, 4, atlas.getSubImage("PICKAXE"));
+    }
+
+    @Test
+    public void testSubImagesAreScaledToTheTextureSize() throws IOException {
+        TextureAtlas atlas = load("{\"texture\": \"engine:items\", \"textureSize\": [32, 16], "
+                + "\"subimages\": [{\"name\": \"sword\", \"min\": [1, 1], \"size\": [2, 3]}]}");
+
+        assertPixelRegion(2, 2, 6, 8, atlas.getSubImage("sword"));
+    }
+
+    @Test
+    public void testSubImagesAreClampedToTheTexture() throws IOException {
+        TextureAtlas atlas = load("{\"texture\": \"engine:items\", \"subimages\": [{\"name\": \"edge\", \"min\": [60, -4], \"max\": [80, 40]}]}");
+
+        assertPixelRegion(60, 0, 64, 32, atlas.getSubImage("edge"));
+    }
+
+    @Test
+    public void testSubImagesShareTheAtlasImage() throws IOException {
+        TextureAtlas atlas = load("{\"texture\": \"engine:items\", \"subimages\": [{\"name\": \"a\", \"min\": [0, 0], \"max\": [4, 4]}]}");
+
+        assertEquals(texture.getAwtImage(), atlas.getSubImage("a").getAwtImage());
+    }
+
+    @Test
+    public void testMalformedDefinitionsThrowIOException() {
+        String[] definitions = {
+                "",
+                "{",
+                "[]",
+                "{}",
+                "{\"texture\": 5}",
+                "{\"texture\": \"engine:missing\"}",
+                "{\"texture\": \"engine:items\", \"textureSize\": [0, 16]}",
+                "{\"texture\": \"engine:items\", \"textureSize\": [32]}",
+                "{\"texture\": \"engine:items\", \"grid\": []}",
+                "{\"texture\": \"engine:items\", \"grids\": {}}",
+                "{\"texture\": \"engine:items\", \"grid\": {\"tileSize\": [\"a\", \"b\"], \"gridDimensions\": [1, 1]}}",
+                "{\"texture\": \"engine:items\", \"grid\": {\"tileSize\": [4, 4], \"gridDimensions\": [1, 1], \"tileNames\": [5]}}",
+                "{\"texture\": \"engine:items\", \"subimages\": {}}",
+                "{\"texture\": \"engine:items\", \"subimages\": [{\"min\": [0, 0], \"max\": [4, 4]}]}",
+                "{\"texture\": \"engine:items\", \"subimages\": [{\"name\": \"a\", \"min\": [0, 0]}]}"
+        };
+        for (String definition : definitions) {
+            assertThrows(definition, IOException.class, () -> load(definition));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import com.github.benjaminamos.nuiplugin.services.GestaltModuleService;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+import org.terasology.nui.UIWidget;
+import org.terasology.nui.layouts.ColumnLayout;
+import org.terasology.nui.widgets.UIButton;
+import org.terasology.nui.widgets.UILabel;
+
+import java.io.IOException;
+import java.util.List;
+
+public class UIElementLoaderTest extends BasePlatformTestCase {
+    private static final String LAYOUT = "{\"type\": \"ColumnLayout\", \"id\": \"column\", \"contents\": ["
+            + "{\"type\": \"UILabel\", \"id\": \"title\"}, "
+            + "{\"type\": \"ColumnLayout\", \"id\": \"buttons\", \"contents\": [{\"type\": \"UIButton\", \"id\": \"ok\"}]}]}";
+    private UIElementLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        GestaltModuleService gestaltModuleService = getProject().getService(GestaltModuleService.class);
+        gestaltModuleService.getWidgetLibrary().addWidgetClasses(List.of(ColumnLayout.class, UILabel.class, UIButton.class));
+        loader = gestaltModuleService.getLayoutLoader();
+    }
+
+    private UIWidget load(String layout, UIElementLoader.LoadContext context) throws IOException {
+        UIWidget widget = loader.load(layout, context);
+        assertNotNull(widget);
+        return widget;
+    }
+
+    public void testUnchangedLayoutIsReused() throws IOException {
+        UIElementLoader.LoadContext context = new UIElementLoader.LoadContext(null);
+        UIWidget widget = load(LAYOUT, context);
+
+        UIElementLoader.LoadContext newContext = new UIElementLoader.LoadContext(null, context.getLayoutTree());
+        assertSame(widget, load(LAYOUT, newContext));
+        assertEquals(context.getUsedWidgetClasses(), newContext.getUsedWidgetClasses());
+    }
+
+    public void testLayoutIsRebuiltWithoutPreviousLayout() throws IOException {
+        UIWidget widget = load(LAYOUT, new UIElementLoader.LoadContext(null));
+        UIWidget newWidget = load(LAYOUT, new UIElementLoader.LoadContext(null));
+
+        assertNotSame(widget, newWidget);
+        assertNotSame(widget.find("title", UILabel.class), newWidget.find("title", UILabel.class));
+    }
+
+    public void testOnlyChangedSubtreesAreRebuilt() throws IOException {
+        UIElementLoader.LoadContext context = new UIElementLoader.LoadContext(null);
+        UIWidget widget = load(LAYOUT, context);
+        UILabel title = widget.find("title", UILabel.class);
+        UIWidget buttons = widget.find("buttons", UIWidget.class);
+
+        UIElementLoader.LoadContext newContext = new UIElementLoader.LoadContext(null, context.getLayoutTree());
+        UIWidget newWidget = load(LAYOUT.replace("\"ok\"", "\"cancel\""), newContext);
+
+        assertNotSame(widget, newWidget);
+        assertSame(title, newWidget.find("title", UILabel.class));
+        assertNotSame(buttons, newWidget.find("buttons", UIWidget.class));
+        assertNotNull(newWidget.find("cancel", UIButton.class));
+        assertNull(newWidget.find("ok", UIButton.class));
+        assertEquals(context.getUsedWidgetClasses(), newContext.getUsedWidgetClasses());
+    }
+
+    public void testMovedChildrenAreReused() throws IOException {
+        String layout = "{\"type\": \"ColumnLayout\", \"contents\": [{\"type\": \"UILabel\", \"id\": \"first\"}, \"Text\"]}";
+        UIElementLoader.LoadContext context = new UIElementLoader.LoadContext(null);
+        UIWidget widget = load(layout, context);
+        UILabel first = widget.find("first", UILabel.class);
+
+        String movedLayout = "{\"type\": \"ColumnLayout\", \"contents\": [\"Text\", {\"type\": \"UILabel\", \"id\": \"first\"}]}";
+        UIWidget newWidget = load(movedLayout, new UIElementLoader.LoadContext(null, context.getLayoutTree()));
+
+        assertNotSame(widget, newWidget);
+        assertSame(first, newWidget.find("first", UILabel.class));
+    }
+
+    public void testDetachReusedWidgets() throws IOException {
+        UIElementLoader.LoadContext context = new UIElementLoader.LoadContext(null);
+        UIWidget widget = load(LAYOUT, context);
+        UILabel title = widget.find("title", UILabel.class);
+
+        UIElementLoader.LoadContext newContext = new UIElementLoader.LoadContext(null, context.getLayoutTree());
+        UIWidget newWidget = load(LAYOUT.replace("\"ok\"", "\"cancel\""), newContext);
+
+        // The previous layout keeps its widgets until it is no longer drawn.
+        assertSame(title, widget.find("title", UILabel.class));
+        newContext.detachReusedWidgets();
+        assertNull(widget.find("title", UILabel.class));
+        assertNotNull(widget.find("ok", UIButton.class));
+        assertSame(title, newWidget.find("title", UILabel.class));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.nui;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.nui.UIWidget;
+import org.terasology.nui.widgets.UIButton;
+import org.terasology.nui.widgets.UILabel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+public class WidgetLibraryTest {
+    private WidgetLibrary library;
+    private List<String> resolvedNames;
+
+    @Before
+    public void setUp() {
+        library = new WidgetLibrary();
+        resolvedNames = new ArrayList<>();
+    }
+
+    private void setResolver(String moduleId, String simpleName, Class<? extends UIWidget> widgetClass) {
+        library.setWidgetResolver((resolvedModuleId, resolvedName) -> {
+            resolvedNames.add(resolvedModuleId + ":" + resolvedName);
+            return resolvedModuleId.equals(moduleId) && resolvedName.equals(simpleName) ? widgetClass : null;
+        });
+    }
+
+    @Test
+    public void testLookupIsCaseInsensitive() {
+        library.addWidgetClass(UILabel.class);
+
+        assertEquals(UILabel.class, library.getWidgetClassByName("UILabel"));
+        assertEquals(UILabel.class, library.getWidgetClassByName("uilabel"));
+        assertEquals(UILabel.class, library.getWidgetClassByName("UILABEL"));
+        assertNull(library.getWidgetClassByName("UILabe"));
+        assertNull(library.getWidgetClassByName("UILabels"));
+    }
+
+    @Test
+    public void testCollidingNames() {
+        // These names hash identically once lower-cased.
+        library.addWidgetClass("a~", UILabel.class);
+        library.addWidgetClass("b_", UIButton.class);
+
+        assertEquals(UILabel.class, library.getWidgetClassByName("A~"));
+        assertEquals(UIButton.class, library.getWidgetClassByName("B_"));
+        assertNull(library.getWidgetClassByName("c@"));
+    }
+
+    @Test
+    public void testManyWidgets() {
+        for (int widgetNo = 0; widgetNo < 500; widgetNo++) {
+            library.addWidgetClass("Widget" + widgetNo, widgetNo % 2 == 0 ? UILabel.class : UIButton.class);
+        }
+
+        for (int widgetNo = 0; widgetNo < 500; widgetNo++) {
+            assertEquals(widgetNo % 2 == 0 ? UILabel.class : UIButton.class, library.getWidgetClassByName("WIDGET" + widgetNo));
+        }
+        assertNull(library.getWidgetClassByName("Widget500"));
+    }
+
+    @Test
+    public void testLaterWidgetsReplaceEarlierOnesCaseInsensitively() {
+        library.addWidgetClass("Label", UILabel.class);
+        library.addWidgetClass("LABEL", UIButton.class);
+
+        assertEquals(UIButton.class, library.getWidgetClassByName("label"));
+    }
+
+    @Test
+    public void testNamespaces() {
+        library.addWidgetClass("engine:Label", UILabel.class);
+        library.addWidgetClass(UIButton.class);
+
+        assertNull(library.getWidgetClassByName("Label"));
+        assertEquals(UILabel.class, library.getWidgetClassByName("ENGINE:label"));
+        assertNull(library.getWidgetClassByName("other:Label"));
+        assertEquals(UILabel.class, library.getWidgetClassByName("Engine", "Label"));
+        assertNull(library.getWidgetClassByName("other", "Label"));
+        assertEquals(UILabel.class, library.getWidgetClassByName(List.of("other", "engine"), "label"));
+        // Built-in widgets take precedence over module widgets, but qualified names are never searched for globally.
+        assertEquals(UIButton.class, library.getWidgetClassByName("engine", "UIButton"));
+        assertNull(library.getWidgetClassByName("engine:UIButton"));
+    }
+
+    @Test
+    public void testResolvedWidgetsAreMemoised() {
+        setResolver("mymodule", "MyButton", UIButton.class);
+
+        assertEquals(UIButton.class, library.getWidgetClassByName("mymodule:MyButton"));
+        assertEquals(UIButton.class, library.getWidgetClassByName("MYMODULE:mybutton"));
+        assertEquals(UIButton.class, library.getWidgetClassByName("mymodule", "MyButton"));
+        assertNull(library.getWidgetClassByName("mymodule:Missing"));
+        assertNull(library.getWidgetClassByName("mymodule:Missing"));
+
+        assertEquals(List.of("mymodule:MyButton", "mymodule:Missing"), resolvedNames);
+    }
+
+    @Test
+    public void testFailedResolutionsAreNotMemoised() {
+        AtomicBoolean indexing = new AtomicBoolean(true);
+        library.setWidgetResolver((moduleId, simpleName) -> {
+            if (indexing.get()) {
+                throw new IllegalStateException("Indexing");
+            }
+            return UIButton.class;
+        });
+        assertThrows(IllegalStateException.class, () -> library.getWidgetClassByName("mymodule:MyButton"));
+
+        indexing.set(false);
+        assertEquals(UIButton.class, library.getWidgetClassByName("mymodule:MyButton"));
+    }
+
+    @Test
+    public void testClearResolvedWidgets() {
+        setResolver("mymodule", "MyButton", UIButton.class);
+        library.getWidgetClassByName("mymodule:MyButton");
+        library.getWidgetClassByName("mymodule:Missing");
+        resolvedNames.clear();
+
+        // Missing widgets are always forgotten, since they may have been added since.
+        library.clearResolvedWidgets(widgetClass -> false);
+        library.getWidgetClassByName("mymodule:MyButton");
+        library.getWidgetClassByName("mymodule:Missing");
+        assertEquals(List.of("mymodule:Missing"), resolvedNames);
+        resolvedNames.clear();
+
+        library.clearResolvedWidgets();
+        library.getWidgetClassByName("mymodule:MyButton");
+        assertEquals(List.of("mymodule:MyButton"), resolvedNames);
+    }
+
+    @Test
+    public void testAddedWidgetsAreNotCleared() {
+        library.addWidgetClass("mymodule:MyLabel", UILabel.class);
+        setResolver("mymodule", "MyButton", UIButton.class);
+
+        library.clearResolvedWidgets();
+
+        assertEquals(UILabel.class, library.getWidgetClassByName("mymodule:MyLabel"));
+        assertEquals(List.of(), resolvedNames);
+    }
+}
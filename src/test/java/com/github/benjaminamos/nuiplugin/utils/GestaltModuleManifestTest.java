@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Benjamin Amos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.benjaminamos.nuiplugin.utils;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.BasePlatformTestCase;
+
+import java.util.List;
+
+public class GestaltModuleManifestTest extends BasePlatformTestCase {
+    private GestaltModuleManifest read(String manifestPath, String manifestText) {
+        VirtualFile manifestFile = myFixture.addFileToProject(manifestPath, manifestText).getVirtualFile();
+        return GestaltModuleManifest.read(manifestFile);
+    }
+
+    public void testRead() {
+        GestaltModuleManifest manifest = read("ModuleDirectory/module.txt",
+                "{\"id\": \"MyModule\", \"dependencies\": [{\"id\": \"engine\"}, {\"id\": \"CoreWidgets\", \"minVersion\": \"1.0.0\"}]}");
+
+        assertEquals("MyModule", manifest.getId());
+        assertEquals(List.of("engine", "CoreWidgets"), manifest.getDependencyIds());
+    }
+
+    public void testMalformedDependenciesAreSkipped() {
+        GestaltModuleManifest manifest = read("ModuleDirectory/module.txt",
+                "{\"id\": \"MyModule\", \"dependencies\": [\"engine\", {\"version\": \"1.0.0\"}, {\"id\": \"CoreWidgets\"}]}");
+
+        assertEquals(List.of("CoreWidgets"), manifest.getDependencyIds());
+        assertEquals(List.of(), read("OtherDirectory/module.txt", "{\"id\": \"Other\", \"dependencies\": {}}").getDependencyIds());
+    }
+
+    public void testMissingIdFallsBackToDirectoryName() {
+        GestaltModuleManifest manifest = read("ModuleDirectory/module.txt", "{\"dependencies\": [{\"id\": \"engine\"}]}");
+
+        assertEquals("ModuleDirectory", manifest.getId());
+        assertEquals(List.of("engine"), manifest.getDependencyIds());
+        assertEquals("EmptyIdDirectory", read("EmptyIdDirectory/module.txt", "{\"id\": \"\"}").getId());
+        assertEquals("ObjectIdDirectory", read("ObjectIdDirectory/module.txt", "{\"id\": {}}").getId());
+    }
+
+    public void testUnreadableManifestFallsBackToDirectoryName() {
+        GestaltModuleManifest invalidManifest = read("InvalidDirectory/module.txt", "{\"id\": ");
+        assertEquals("InvalidDirectory", invalidManifest.getId());
+        assertEquals(List.of(), invalidManifest.getDependencyIds());
+
+        GestaltModuleManifest arrayManifest = read("ArrayDirectory/module.txt", "[\"MyModule\"]");
+        assertEquals("ArrayDirectory", arrayManifest.getId());
+        assertEquals(List.of(), arrayManifest.getDependencyIds());
+
+        assertEquals("EmptyDirectory", read("EmptyDirectory/module.txt", "").getId());
+    }
+
+    public void testFindManifest() {
+        VirtualFile jsonManifest = myFixture.addFileToProject("ModuleDirectory/module.json", "{}").getVirtualFile();
+        VirtualFile directory = jsonManifest.getParent();
+        assertEquals(jsonManifest, GestaltModuleManifest.findManifest(directory));
+
+        VirtualFile textManifest = myFixture.addFileToProject("ModuleDirectory/module.txt", "{}").getVirtualFile();
+        assertEquals(textManifest, GestaltModuleManifest.findManifest(directory));
+        assertTrue(GestaltModuleManifest.isManifest(textManifest));
+        assertNull(GestaltModuleManifest.findManifest(myFixture.addFileToProject("OtherDirectory/build.gradle", "").getVirtualFile().getParent()));
+    }
+}